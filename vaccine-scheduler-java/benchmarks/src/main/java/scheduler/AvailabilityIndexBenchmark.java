@@ -0,0 +1,148 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.AvailabilityIndex;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The availability lookups of {@link AvailabilityIndex} on a year of availability, compared with a
+ * sorted set of usernames per date (the layout the index had before it used bitmaps, and the one
+ * the in-memory fake's Availabilities table still has). Setup prints the heap each layout takes,
+ * measured after a GC, and the bytes the bitmaps take.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AvailabilityIndexBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    @Param({"sets", "bitmap", "bitmap-off-heap"})
+    public String layout;
+
+    @Param({"5000"})
+    public int caregivers;
+
+    @Param({"365"})
+    public int days;
+
+    // share of the caregivers available on each day
+    @Param({"0.7"})
+    public double density;
+
+    private AvailabilityIndex index;
+    private NavigableMap<LocalDate, NavigableSet<String>> sets;
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // counts what the layout keeps of the rows it is loaded from, and nothing else
+        long before = usedHeap();
+        Map<Date, List<String>> availabilities = new HashMap<>();
+        Random random = new Random(42);
+        for (int d = 0; d < days; d++) {
+            List<String> available = new ArrayList<>();
+            for (int c = 0; c < caregivers; c++) {
+                if (random.nextDouble() < density) {
+                    // a new String per row, as read from the database
+                    available.add(new String("caregiver" + c));
+                }
+            }
+            availabilities.put(Date.valueOf(FIRST_DAY.plusDays(d)), available);
+        }
+        usernames = new String[caregivers];
+        for (int c = 0; c < caregivers; c++) {
+            usernames[c] = "caregiver" + c;
+        }
+
+        if (layout.equals("sets")) {
+            sets = new ConcurrentSkipListMap<>();
+            for (Map.Entry<Date, List<String>> entry : availabilities.entrySet()) {
+                NavigableSet<String> set = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+                set.addAll(entry.getValue());
+                sets.put(entry.getKey().toLocalDate(), set);
+            }
+        } else {
+            index = new AvailabilityIndex(layout.equals("bitmap-off-heap"));
+            index.load(availabilities);
+        }
+        availabilities = null;
+        long after = usedHeap();
+        System.out.printf("%n%s: %.1f MB of heap%s%n", layout, (after - before) / 1e6,
+                index == null ? "" : String.format(", bitmaps %.1f KB", index.bitmapBytes() / 1e3));
+    }
+
+    @Benchmark
+    public Object whoIsFree() {
+        Date date = randomDay();
+        if (sets != null) {
+            NavigableSet<String> set = sets.get(date.toLocalDate());
+            return new ArrayList<>(set);
+        }
+        return index.caregivers(date);
+    }
+
+    @Benchmark
+    public boolean isFree() {
+        Date date = randomDay();
+        String caregiver = usernames[ThreadLocalRandom.current().nextInt(caregivers)];
+        if (sets != null) {
+            return sets.get(date.toLocalDate()).contains(caregiver);
+        }
+        return index.isAvailable(date, caregiver);
+    }
+
+    @Benchmark
+    public Object freeOnAnyDayOfWeek() {
+        Date from = randomDay();
+        Date to = Date.valueOf(from.toLocalDate().plusDays(6));
+        if (sets != null) {
+            NavigableSet<String> any = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (NavigableSet<String> set : sets.subMap(from.toLocalDate(), true, to.toLocalDate(), true).values()) {
+                any.addAll(set);
+            }
+            return new ArrayList<>(any);
+        }
+        return index.caregivers(from, to);
+    }
+
+    private Date randomDay() {
+        return Date.valueOf(FIRST_DAY.plusDays(ThreadLocalRandom.current().nextInt(days)));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
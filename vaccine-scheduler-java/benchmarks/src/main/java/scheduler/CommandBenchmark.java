@@ -0,0 +1,165 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.ReservationException;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler commands run end to end through {@link Scheduler#execute(Session, String)}, from
+ * parsing the command line to printing the result, against a local database.
+ *
+ * The backend defaults to the "memory" in-memory fake; {@code -p backend=sqlserver} runs against
+ * the configured database and adds uniquely named rows to it. Every caregiver is available on
+ * every day, and the reserve benchmark puts the booked slot back after each reservation so the
+ * dataset keeps its size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    @Param({"memory"})
+    public String backend;
+
+    @Param({"100"})
+    public int caregivers;
+
+    @Param({"30"})
+    public int days;
+
+    @Param({"100"})
+    public int appointments;
+
+    private Storage storage;
+    private String vaccineName;
+    private String[] searchCommands;
+    private String[] reserveCommands;
+    private int next = 0;
+
+    private Session anonymous;
+    private Session viewer;
+    private Session booker;
+    private StringWriter bookerOutput;
+
+    @Setup
+    public void setUp() throws SQLException, ReservationException {
+        storage = StorageManager.createStorage(backend);
+        StorageManager.setStorage(storage);
+
+        // unique names so repeated runs against a real database do not collide
+        String prefix = "bench" + System.currentTimeMillis() + "_";
+        vaccineName = prefix + "vaccine";
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("Bench#Mark1", salt);
+
+        List<Date> dates = new ArrayList<>();
+        for (int d = 0; d < days; d++) {
+            dates.add(Date.valueOf(FIRST_DAY.plusDays(d)));
+        }
+        for (int i = 0; i < caregivers; i++) {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(prefix + "cg" + i, salt, hash).build();
+            storage.saveCaregiver(caregiver);
+            storage.addAvailabilities(caregiver.getUsername(), dates);
+        }
+        storage.saveVaccine(new Vaccine.VaccineBuilder(vaccineName, Integer.MAX_VALUE / 2).build());
+
+        Patient viewerPatient = new Patient.PatientBuilder(prefix + "viewer", salt, hash).build();
+        Patient bookerPatient = new Patient.PatientBuilder(prefix + "booker", salt, hash).build();
+        storage.savePatient(viewerPatient);
+        storage.savePatient(bookerPatient);
+        for (int i = 0; i < appointments; i++) {
+            Date date = dates.get(i % days);
+            Appointment appointment = storage.reserve(date, vaccineName, viewerPatient.getUsername());
+            storage.addAvailability(appointment.getCaregiverUsername(), date);
+        }
+
+        searchCommands = new String[days];
+        reserveCommands = new String[days];
+        for (int d = 0; d < days; d++) {
+            searchCommands[d] = "search_caregiver_schedule " + dates.get(d);
+            reserveCommands[d] = "reserve " + dates.get(d) + " " + vaccineName;
+        }
+
+        PrintWriter discard = new PrintWriter(Writer.nullWriter());
+        anonymous = new Session(discard);
+        viewer = new Session(discard);
+        viewer.loginPatient(viewerPatient);
+        bookerOutput = new StringWriter();
+        booker = new Session(new PrintWriter(bookerOutput));
+        booker.loginPatient(bookerPatient);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Benchmark
+    public boolean parseUnknownCommand() {
+        return Scheduler.execute(anonymous, "no_such_command 2030-01-01 Pfizer");
+    }
+
+    @Benchmark
+    public boolean parseWithoutLogin() {
+        return Scheduler.execute(anonymous, "reserve 2030-01-01 Pfizer");
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule() {
+        return Scheduler.execute(viewer, searchCommands[nextDay()]);
+    }
+
+    @Benchmark
+    public boolean showAppointments() {
+        return Scheduler.execute(viewer, "show_appointments");
+    }
+
+    @Benchmark
+    public boolean reserve() throws SQLException {
+        int day = nextDay();
+        bookerOutput.getBuffer().setLength(0);
+        boolean result = Scheduler.execute(booker, reserveCommands[day]);
+        // "Appointment ID <id>, Caregiver username <caregiver>"
+        String output = bookerOutput.toString().trim();
+        String caregiver = output.substring(output.lastIndexOf(' ') + 1);
+        storage.addAvailability(caregiver, Date.valueOf(FIRST_DAY.plusDays(day)));
+        return result;
+    }
+
+    private int nextDay() {
+        next = (next + 1) % days;
+        return next;
+    }
+}
@@ -0,0 +1,61 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password hashing and validation, as done on every signup and login.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashingBenchmark {
+
+    @Param({"Secret#Pass1", "weakpassword"})
+    public String password;
+
+    private byte[] salt;
+    private byte[] hash;
+
+    @Setup
+    public void setUp() {
+        salt = Util.generateSalt();
+        hash = Util.generateHash(password, salt);
+    }
+
+    @Benchmark
+    public byte[] generateSalt() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(password, salt);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return PasswordHasher.getInstance().verify(password, salt, hash);
+    }
+
+    @Benchmark
+    public boolean isStrongPassword() {
+        return Scheduler.isStrongPassword(password);
+    }
+}
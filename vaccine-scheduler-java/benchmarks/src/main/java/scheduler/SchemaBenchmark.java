@@ -0,0 +1,94 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scheduler.db.AppointmentQuery;
+import scheduler.db.InMemoryFakeStorage;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.tools.WorkloadGenerator;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queries the schema migrations add indexes for, on a dataset made by {@link WorkloadGenerator},
+ * at different schema versions: listing a patient's and a caregiver's appointments, and the
+ * caregivers available on a date.
+ *
+ * Only the "sqlserver" backend measures the indexes the migrations create. It migrates the
+ * configured database to the SchemaVersion environment variable when it starts, and migrations
+ * cannot be undone, so run it once with SchemaVersion=0 on a fresh database and once more without
+ * it. On the "memory" backend {@code schemaVersion} only switches the in-memory fake between
+ * scanning every appointment and per-user sorted sets, which says nothing about what the SQL
+ * Server indexes cost or save.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchemaBenchmark {
+
+    @Param({"memory"})
+    public String backend;
+
+    @Param({"0", "2"})
+    public int schemaVersion;
+
+    @Param({"100000"})
+    public int patients;
+
+    @Param({"2000"})
+    public int caregivers;
+
+    @Param({"180"})
+    public int days;
+
+    private Storage storage;
+    private WorkloadGenerator.Dataset dataset;
+    private final AppointmentQuery all = new AppointmentQuery.AppointmentQueryBuilder().build();
+
+    @Setup
+    public void setUp() throws SQLException {
+        storage = backend.equalsIgnoreCase("memory")
+                ? new InMemoryFakeStorage(InMemoryFakeStorage.SCHEMA_RESOURCE, schemaVersion)
+                : StorageManager.createStorage(backend);
+        dataset = new WorkloadGenerator(patients, caregivers, days, 42).generate(storage);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Benchmark
+    public int patientAppointments(Blackhole blackhole) throws SQLException {
+        String patient = dataset.patient(ThreadLocalRandom.current().nextInt(patients));
+        return storage.streamPatientAppointments(patient, all, blackhole::consume);
+    }
+
+    @Benchmark
+    public int caregiverAppointments(Blackhole blackhole) throws SQLException {
+        String caregiver = dataset.caregiver(ThreadLocalRandom.current().nextInt(caregivers));
+        return storage.streamCaregiverAppointments(caregiver, all, blackhole::consume);
+    }
+
+    @Benchmark
+    public Object availableCaregivers() throws SQLException {
+        return storage.findAvailableCaregivers(dataset.day(ThreadLocalRandom.current().nextInt(days)));
+    }
+}
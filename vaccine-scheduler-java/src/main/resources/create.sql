@@ -31,4 +31,11 @@ CREATE TABLE Appointments (
     Vaccine varchar(255) REFERENCES Vaccines(Name),
     ID int,
     PRIMARY KEY (ID)
-);
\ No newline at end of file
+);
+
+-- Counters for IDs handed out in blocks by scheduler.db.IdAllocator
+CREATE TABLE IdBlocks (
+    Name varchar(255),
+    NextID int,
+    PRIMARY KEY (Name)
+);
@@ -0,0 +1,5 @@
+-- show_appointments for a patient: WHERE Patient = ? ordered by (Time, ID), paged by a keyset
+-- cursor. The included columns make the index covering, so no lookups into the table are needed.
+CREATE NONCLUSTERED INDEX IX_Appointments_Patient
+    ON Appointments (Patient, Time, ID)
+    INCLUDE (Vaccine, Caregiver);
@@ -0,0 +1,5 @@
+-- show_appointments for a caregiver: WHERE Caregiver = ? ordered by (Time, ID), paged by a keyset
+-- cursor. Busy caregivers have thousands of rows, which a scan of Appointments would read all of.
+CREATE NONCLUSTERED INDEX IX_Appointments_Caregiver
+    ON Appointments (Caregiver, Time, ID)
+    INCLUDE (Vaccine, Patient);
@@ -0,0 +1,13 @@
+-- Time slots (scheduler.db.SlotSchedule): the free slots of a caregiver's day as a bitset, NULL for
+-- a caregiver available the whole day, and the start time of an appointment booked in a slot.
+ALTER TABLE Availabilities ADD Slots bigint NULL;
+ALTER TABLE Appointments ADD StartTime time(0) NULL;
+-- show_appointments reads the start time too, so both indexes keep covering it.
+CREATE NONCLUSTERED INDEX IX_Appointments_Patient
+    ON Appointments (Patient, Time, ID)
+    INCLUDE (Vaccine, Caregiver, StartTime)
+    WITH (DROP_EXISTING = ON);
+CREATE NONCLUSTERED INDEX IX_Appointments_Caregiver
+    ON Appointments (Caregiver, Time, ID)
+    INCLUDE (Vaccine, Patient, StartTime)
+    WITH (DROP_EXISTING = ON);
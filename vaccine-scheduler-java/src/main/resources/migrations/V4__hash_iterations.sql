@@ -0,0 +1,4 @@
+-- PBKDF2 iterations of each password hash (scheduler.util.PasswordHasher), so that HashIterations
+-- can change without breaking stored passwords. NULL for hashes stored before, which used 10.
+ALTER TABLE Caregivers ADD HashIterations int NULL;
+ALTER TABLE Patients ADD HashIterations int NULL;
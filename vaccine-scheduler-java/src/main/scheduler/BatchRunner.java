@@ -0,0 +1,165 @@
+package scheduler;
+
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs command scripts without the interactive menu.
+ *
+ * Usage: Scheduler --batch [--workers N] script...
+ * Each script is a file of commands, one per line, in the same syntax as the interactive console
+ * ("-" reads the script from standard input). Blank lines and lines starting with '#' are
+ * ignored, and a script ends at its last line or at "quit".
+ *
+ * Every script runs in its own {@link Session}, so a login in one script does not carry over to
+ * another. Scripts are spread over the worker threads (one per script by default, at most one
+ * per core) and each worker keeps a single pooled connection for all the scripts it runs.
+ * Output is buffered and written in script order, with each command echoed before its output.
+ */
+public class BatchRunner {
+
+    private final List<String> scripts;
+    private final int workers;
+
+    public BatchRunner(List<String> scripts, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be positive!");
+        }
+        this.scripts = scripts;
+        this.workers = Math.min(workers, scripts.size());
+    }
+
+    /**
+     * Parses the batch arguments, runs the scripts and returns the exit status: 0 if every script
+     * could be read, 1 otherwise.
+     */
+    static int run(String[] args) {
+        List<String> scripts = new ArrayList<>();
+        int workers = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--workers") && i + 1 < args.length) {
+                try {
+                    workers = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    workers = 0;
+                }
+            } else {
+                scripts.add(args[i]);
+            }
+        }
+        if (scripts.isEmpty() || workers <= 0) {
+            System.out.println("Usage: Scheduler --batch [--workers N] script...");
+            return 1;
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        try {
+            return new BatchRunner(scripts, workers).runAll(out) ? 0 : 1;
+        } finally {
+            out.flush();
+            StorageManager.getStorage().close();
+        }
+    }
+
+    /**
+     * Runs all scripts and writes their output to {@code out}. Returns false if a script could not
+     * be read.
+     */
+    public boolean runAll(PrintWriter out) {
+        if (scripts.size() == 1) {
+            // nothing to interleave with, so stream straight to the output
+            boolean[] succeeded = new boolean[1];
+            runPinned(() -> succeeded[0] = runScript(scripts.get(0), new Session(out)));
+            return succeeded[0];
+        }
+
+        StringWriter[] outputs = new StringWriter[scripts.size()];
+        boolean[] succeeded = new boolean[scripts.size()];
+        AtomicInteger nextScript = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            Thread worker = new Thread(() -> runPinned(() -> {
+                int i;
+                while ((i = nextScript.getAndIncrement()) < scripts.size()) {
+                    outputs[i] = new StringWriter();
+                    succeeded[i] = runScript(scripts.get(i), new Session(new PrintWriter(outputs[i])));
+                }
+            }), "batch-worker-" + w);
+            worker.start();
+            threads.add(worker);
+        }
+
+        for (Thread worker : threads) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        boolean ok = true;
+        for (int i = 0; i < scripts.size(); i++) {
+            out.println("== " + scripts.get(i) + " ==");
+            out.print(outputs[i]);
+            ok &= succeeded[i];
+        }
+        return ok;
+    }
+
+    // runs the work with one connection pinned to the current thread
+    private static void runPinned(Runnable work) {
+        Storage storage = StorageManager.getStorage();
+        try {
+            storage.pinConnection();
+        } catch (SQLException e) {
+            // the commands borrow their own connections instead
+            e.printStackTrace();
+        }
+        try {
+            work.run();
+        } finally {
+            storage.unpinConnection();
+        }
+    }
+
+    private static boolean runScript(String script, Session session) {
+        PrintWriter out = session.getOut();
+        try (BufferedReader r = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                out.println("> " + trimmed);
+                if (!Scheduler.execute(session, trimmed)) {
+                    break;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            out.println("Could not read " + script);
+            return false;
+        } finally {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package scheduler;
+
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the console's commands as they are read, without waiting for earlier ones to finish, for
+ * commands piped in from another program.
+ *
+ * Read-only commands (search_caregiver_schedule and show_appointments) run concurrently with each
+ * other, on a copy of the session. Any other command may change the login or the data those read,
+ * so it waits for every command before it, and the commands after it wait for it. Each command
+ * writes into its own buffer and the buffers are printed in input order, so the output is the same
+ * as when the commands run one at a time. At most {@code maxPending} commands are read ahead of the
+ * output.
+ *
+ * PipelineWorkers sets the number of threads running commands (default: one per core; 0 runs piped
+ * commands one at a time like typed ones).
+ */
+public class CommandPipeline {
+
+    public static final int DEFAULT_MAX_PENDING = 256;
+
+    private static final Set<String> READ_ONLY = Set.of("search_caregiver_schedule", "show_appointments");
+
+    private final Session session;
+    private final PrintWriter out;
+    private final ExecutorService workers;
+    private final Semaphore pending;
+
+    // completes once the last state-changing command dispatched has run
+    private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+    // read-only commands dispatched since then, which the next state-changing command waits for
+    private final List<CompletableFuture<String>> readsSinceWrite = new ArrayList<>();
+    // completes once the output of the last command dispatched has been printed
+    private CompletableFuture<Void> printed = CompletableFuture.completedFuture(null);
+
+    public CommandPipeline(Session session, int workers, int maxPending) {
+        if (workers <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("Number of workers and pending commands must be positive!");
+        }
+        this.session = session;
+        this.out = session.getOut();
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "command-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Reads the number of workers from the PipelineWorkers environment variable.
+     */
+    public static int configuredWorkers() {
+        return Util.envInt("PipelineWorkers", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs every command read until quit or the end of input, and returns once all of them have
+     * been printed.
+     */
+    public void run(BufferedReader in) {
+        try {
+            while (true) {
+                String response;
+                try {
+                    response = in.readLine();
+                } catch (IOException e) {
+                    // the input cannot be read any further, so it ends like a closed one
+                    out.println("An error occurred. Please try again!");
+                    response = null;
+                }
+                // end of input behaves like quit
+                if (!submit(response == null ? "quit" : response)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            printed.join();
+            workers.shutdown();
+            out.flush();
+        }
+    }
+
+    /**
+     * Dispatches a command line, waiting while too many commands are ahead of the output. Returns
+     * false if the command was quit, after which nothing more may be submitted.
+     */
+    public boolean submit(String response) throws InterruptedException {
+        pending.acquire();
+        String operation = response.split(" ")[0];
+        boolean quit = operation.equals("quit");
+        CompletableFuture<String> result;
+        if (READ_ONLY.contains(operation)) {
+            // reads see the login left by the commands before them, which cannot change meanwhile
+            result = lastWrite.thenApplyAsync(v -> execute(response, true), workers);
+            if (readsSinceWrite.size() >= DEFAULT_MAX_PENDING) {
+                readsSinceWrite.removeIf(CompletableFuture::isDone);
+            }
+            readsSinceWrite.add(result);
+        } else {
+            List<CompletableFuture<?>> before = new ArrayList<>(readsSinceWrite);
+            before.add(lastWrite);
+            result = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0]))
+                    .thenApplyAsync(v -> execute(response, false), workers);
+            readsSinceWrite.clear();
+            lastWrite = result.thenApply(output -> null);
+        }
+        printed = printed.thenCombine(result, (v, output) -> {
+            out.print(output);
+            out.flush();
+            pending.release();
+            return null;
+        });
+        return !quit;
+    }
+
+    // runs one command and returns what the console would print for it, prompt and menu included
+    private String execute(String response, boolean readOnly) {
+        StringWriter buffer = new StringWriter();
+        PrintWriter commandOut = new PrintWriter(buffer);
+        commandOut.print("> ");
+        Session target = session;
+        if (readOnly) {
+            target = session.copy(commandOut);
+        } else {
+            session.setOut(commandOut);
+        }
+        try {
+            if (Scheduler.execute(target, response)) {
+                Scheduler.mainMenu(commandOut);
+            }
+        } catch (RuntimeException e) {
+            // the commands after it still run, as they would have if it had been typed
+            commandOut.println("An error occurred. Please try again!");
+            e.printStackTrace();
+        } finally {
+            if (!readOnly) {
+                session.setOut(out);
+            }
+        }
+        commandOut.flush();
+        return buffer.toString();
+    }
+}
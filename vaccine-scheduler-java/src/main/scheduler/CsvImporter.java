@@ -0,0 +1,231 @@
+package scheduler;
+
+import scheduler.db.ImportBatch;
+import scheduler.db.Storage;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams users and vaccine inventory from a CSV file into storage.
+ *
+ * Each line is {@code type,name,value}:
+ * <pre>
+ * vaccine,Pfizer,100        adds 100 doses, creating the vaccine if needed
+ * caregiver,alice,Secret#1  creates a caregiver with the given password
+ * patient,bob,Secret#2      creates a patient with the given password
+ * </pre>
+ * An optional header line, blank lines and lines starting with '#' are ignored. The file is read
+ * one batch at a time, the passwords of a batch are hashed in parallel on all cores, and every
+ * batch is written in a single transaction. Invalid rows and taken usernames are rejected
+ * without stopping the import.
+ */
+public class CsvImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    // rejected rows listed individually in the report; the rest are only counted
+    private static final int MAX_REPORTED_REJECTIONS = 20;
+
+    private final Storage storage;
+    private final int batchSize;
+
+    public CsvImporter(Storage storage, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive!");
+        }
+        this.storage = storage;
+        this.batchSize = batchSize;
+    }
+
+    public Result importFile(Path file) throws IOException, SQLException {
+        Result result = new Result();
+        long start = System.nanoTime();
+        ExecutorService hashers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Row> rows = new ArrayList<>(batchSize);
+            String line;
+            int lineNumber = 0;
+            while ((line = r.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")
+                        || (lineNumber == 1 && trimmed.toLowerCase(Locale.ROOT).startsWith("type,"))) {
+                    continue;
+                }
+                result.lines++;
+                Row row = Row.parse(lineNumber, trimmed, result);
+                if (row != null) {
+                    rows.add(row);
+                }
+                if (rows.size() == batchSize) {
+                    writeBatch(rows, hashers, result);
+                    rows.clear();
+                }
+            }
+            writeBatch(rows, hashers, result);
+        } finally {
+            hashers.shutdown();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void writeBatch(List<Row> rows, ExecutorService hashers, Result result) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        // hash all passwords of the batch in parallel
+        List<Future<byte[][]>> hashes = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            if (row.type.equals("vaccine")) {
+                hashes.add(null);
+            } else {
+                hashes.add(hashers.submit(() -> {
+                    byte[] salt = Util.generateSalt();
+                    return new byte[][] {salt, Util.generateHash(row.value, salt)};
+                }));
+            }
+        }
+
+        ImportBatch batch = new ImportBatch();
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (row.type.equals("vaccine")) {
+                batch.addDoses(row.name, Integer.parseInt(row.value));
+                result.doses += Integer.parseInt(row.value);
+                continue;
+            }
+            byte[][] saltAndHash;
+            try {
+                saltAndHash = hashes.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while hashing passwords", e);
+            } catch (ExecutionException e) {
+                result.reject(row.lineNumber, "could not hash password");
+                continue;
+            }
+            if (row.type.equals("caregiver")) {
+                batch.addCaregiver(new Caregiver.CaregiverBuilder(row.name, saltAndHash[0], saltAndHash[1]).build());
+            } else {
+                batch.addPatient(new Patient.PatientBuilder(row.name, saltAndHash[0], saltAndHash[1]).build());
+            }
+        }
+
+        List<String> skipped = storage.importBatch(batch);
+        result.users += batch.getCaregivers().size() + batch.getPatients().size() - skipped.size();
+        for (String username : skipped) {
+            result.reject(-1, "username " + username + " is taken");
+        }
+    }
+
+    private static class Row {
+        private final int lineNumber;
+        private final String type;
+        private final String name;
+        private final String value;
+
+        private Row(int lineNumber, String type, String name, String value) {
+            this.lineNumber = lineNumber;
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+
+        // returns null and records the rejection if the line is not a valid row
+        private static Row parse(int lineNumber, String line, Result result) {
+            String[] fields = line.split(",", -1);
+            if (fields.length != 3) {
+                result.reject(lineNumber, "expected 3 fields");
+                return null;
+            }
+            String type = fields[0].trim().toLowerCase(Locale.ROOT);
+            String name = fields[1].trim();
+            String value = fields[2].trim();
+            if (name.isEmpty() || name.contains(" ")) {
+                result.reject(lineNumber, "invalid name");
+                return null;
+            }
+            if (type.equals("vaccine")) {
+                try {
+                    if (Integer.parseInt(value) <= 0) {
+                        result.reject(lineNumber, "doses must be positive");
+                        return null;
+                    }
+                } catch (NumberFormatException e) {
+                    result.reject(lineNumber, "invalid number of doses");
+                    return null;
+                }
+            } else if (type.equals("caregiver") || type.equals("patient")) {
+                if (!Scheduler.isStrongPassword(value)) {
+                    result.reject(lineNumber, "weak password");
+                    return null;
+                }
+            } else {
+                result.reject(lineNumber, "unknown type");
+                return null;
+            }
+            return new Row(lineNumber, type, name, value);
+        }
+    }
+
+    public static class Result {
+        private long lines = 0;
+        private long users = 0;
+        private long doses = 0;
+        private long rejected = 0;
+        private long elapsedNanos = 0;
+        private final List<String> rejections = new ArrayList<>();
+
+        private void reject(int lineNumber, String reason) {
+            rejected++;
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                rejections.add(lineNumber > 0 ? "line " + lineNumber + ": " + reason : reason);
+            }
+        }
+
+        // Getters
+        public long getLines() {
+            return lines;
+        }
+
+        public long getUsers() {
+            return users;
+        }
+
+        public long getDoses() {
+            return doses;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public List<String> getRejections() {
+            return rejections;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : lines / (elapsedNanos / 1e9);
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package scheduler;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes the rows of a query command's result to the session's output, as they are produced.
+ *
+ * A row has a type, such as "appointment" or "vaccine", and named fields in a fixed order. The
+ * formats are:
+ * <ul>
+ *     <li>"human": the fields separated by spaces, as the console has always printed them (the
+ *     default),</li>
+ *     <li>"csv": the type and then the fields, RFC 4180 quoted, with a header line before the
+ *     first row of each type,</li>
+ *     <li>"jsonl": one JSON object per row, with the type under "type".</li>
+ * </ul>
+ * Field values are written straight to the output, which is buffered, rather than concatenated
+ * into a line first. A renderer keeps state between rows, so each command creates its own.
+ *
+ * The OutputFormat environment variable sets the default format, and the query commands take a
+ * "format &lt;name&gt;" option.
+ */
+public interface ResultRenderer {
+
+    /**
+     * Starts a row. The label is printed before the fields in the human format only.
+     */
+    ResultRenderer row(String type, String label);
+
+    default ResultRenderer row(String type) {
+        return row(type, null);
+    }
+
+    /**
+     * Adds a field; null values are left out of the human format and empty or null in the others.
+     */
+    ResultRenderer field(String name, Object value);
+
+    ResultRenderer field(String name, long value);
+
+    ResultRenderer list(String name, Collection<?> values);
+
+    void end();
+
+    /**
+     * Prints a note for people, such as an explanation of an empty result. The machine formats
+     * leave it out, as the rows alone say the same.
+     */
+    void message(String text);
+
+    /**
+     * Reads the default format from the OutputFormat environment variable.
+     */
+    static String configuredFormat() {
+        String name = System.getenv("OutputFormat");
+        if (name == null || name.isEmpty()) {
+            return "human";
+        }
+        try {
+            create(name, new PrintWriter(PrintWriter.nullWriter()));
+            return name;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ignoring invalid value for OutputFormat: " + name);
+            return "human";
+        }
+    }
+
+    static ResultRenderer create(String format, PrintWriter out) {
+        if (format.equalsIgnoreCase("human")) {
+            return new Human(out);
+        } else if (format.equalsIgnoreCase("csv")) {
+            return new Csv(out);
+        } else if (format.equalsIgnoreCase("jsonl")) {
+            return new JsonLines(out);
+        }
+        throw new IllegalArgumentException("Unknown output format: " + format);
+    }
+
+    class Human implements ResultRenderer {
+        private final PrintWriter out;
+        private boolean first;
+
+        public Human(PrintWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public ResultRenderer row(String type, String label) {
+            first = true;
+            if (label != null) {
+                value(label);
+            }
+            return this;
+        }
+
+        @Override
+        public ResultRenderer field(String name, Object value) {
+            if (value != null) {
+                value(value);
+            }
+            return this;
+        }
+
+        @Override
+        public ResultRenderer field(String name, long value) {
+            separate();
+            out.print(value);
+            return this;
+        }
+
+        @Override
+        public ResultRenderer list(String name, Collection<?> values) {
+            for (Object value : values) {
+                value(value);
+            }
+            return this;
+        }
+
+        @Override
+        public void end() {
+            out.println();
+        }
+
+        @Override
+        public void message(String text) {
+            out.println(text);
+        }
+
+        private void value(Object value) {
+            separate();
+            out.print(value);
+        }
+
+        private void separate() {
+            if (!first) {
+                out.print(' ');
+            }
+            first = false;
+        }
+    }
+
+    class Csv implements ResultRenderer {
+        private final PrintWriter out;
+        // the row being written and its field names, reused for every row
+        private final StringBuilder line = new StringBuilder();
+        private final List<String> names = new ArrayList<>();
+        private String type;
+        private String lastType;
+
+        public Csv(PrintWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public ResultRenderer row(String type, String label) {
+            this.type = type;
+            line.setLength(0);
+            names.clear();
+            quote(type);
+            return this;
+        }
+
+        @Override
+        public ResultRenderer field(String name, Object value) {
+            names.add(name);
+            line.append(',');
+            if (value != null) {
+                quote(value.toString());
+            }
+            return this;
+        }
+
+        @Override
+        public ResultRenderer field(String name, long value) {
+            names.add(name);
+            line.append(',').append(value);
+            return this;
+        }
+
+        @Override
+        public ResultRenderer list(String name, Collection<?> values) {
+            // one field of space-separated values, as a column cannot hold a list
+            names.add(name);
+            line.append(',');
+            int start = line.length();
+            for (Object value : values) {
+                if (line.length() > start) {
+                    line.append(' ');
+                }
+                line.append(value);
+            }
+            if (needsQuotes(start)) {
+                String joined = line.substring(start);
+                line.setLength(start);
+                quote(joined);
+            }
+            return this;
+        }
+
+        @Override
+        public void end() {
+            if (!type.equals(lastType)) {
+                out.print("type");
+                for (String name : names) {
+                    out.print(',');
+                    out.print(name);
+                }
+                out.println();
+                lastType = type;
+            }
+            out.append(line);
+            out.println();
+        }
+
+        @Override
+        public void message(String text) {
+        }
+
+        private void quote(String value) {
+            int start = line.length();
+            line.append(value);
+            if (!needsQuotes(start)) {
+                return;
+            }
+            line.setLength(start);
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            line.append('"');
+        }
+
+        private boolean needsQuotes(int start) {
+            for (int i = start; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    class JsonLines implements ResultRenderer {
+        private final PrintWriter out;
+
+        public JsonLines(PrintWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public ResultRenderer row(String type, String label) {
+            out.print("{\"type\":");
+            string(type);
+            return this;
+        }
+
+        @Override
+        public ResultRenderer field(String name, Object value) {
+            name(name);
+            if (value == null) {
+                out.print("null");
+            } else {
+                string(value.toString());
+            }
+            return this;
+        }
+
+        @Override
+        public ResultRenderer field(String name, long value) {
+            name(name);
+            out.print(value);
+            return this;
+        }
+
+        @Override
+        public ResultRenderer list(String name, Collection<?> values) {
+            name(name);
+            out.print('[');
+            boolean first = true;
+            for (Object value : values) {
+                if (!first) {
+                    out.print(',');
+                }
+                string(value.toString());
+                first = false;
+            }
+            out.print(']');
+            return this;
+        }
+
+        @Override
+        public void end() {
+            out.println('}');
+        }
+
+        @Override
+        public void message(String text) {
+        }
+
+        private void name(String name) {
+            out.print(',');
+            string(name);
+            out.print(':');
+        }
+
+        private void string(String value) {
+            out.print('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.print('\\');
+                    out.print(c);
+                } else if (c < 0x20) {
+                    out.printf("\\u%04x", (int) c);
+                } else {
+                    out.print(c);
+                }
+            }
+            out.print('"');
+        }
+    }
+}
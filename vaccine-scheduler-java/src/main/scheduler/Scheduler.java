@@ -1,116 +1,182 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AppointmentQuery;
+import scheduler.db.AvailabilitySummary;
+import scheduler.db.DayAvailability;
+import scheduler.db.ReservationException;
+import scheduler.db.SlotSchedule;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.util.Recurrence;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Date;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // how days are divided into time slots, if at all
+    private static final SlotSchedule SLOTS = SlotSchedule.configured();
+    // how query commands print their results unless they are given a format
+    private static final String FORMAT = ResultRenderer.configuredFormat();
 
     public static void main(String[] args) {
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        mainMenu();
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(BatchRunner.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            int status = SchedulerServer.run(Arrays.copyOfRange(args, 1, args.length));
+            if (status != 0) {
+                System.exit(status);
+            }
+            return;
+        }
+
+        // buffered, and flushed before every prompt, so long listings are not written a line at a time
+        Session session = new Session(new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))));
+        PrintWriter out = session.getOut();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        mainMenu(out);
 
             BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+            // commands piped in from another program do not wait for each other
+            int pipelineWorkers = CommandPipeline.configuredWorkers();
+            if (System.console() == null && pipelineWorkers > 0) {
+                new CommandPipeline(session, pipelineWorkers, CommandPipeline.DEFAULT_MAX_PENDING).run(r);
+                StorageManager.getStorage().close();
+                return;
+            }
             while (true) {
-                System.out.print("> ");
+                out.print("> ");
+                out.flush();
                 String response = "";
                 try {
                     response = r.readLine();
                 } catch (IOException e) {
-                    System.out.println("An error occurred. Please try again!");
-                    continue;
-                }
-                // split the user input by spaces
-                String[] tokens = response.split(" ");
-                // check if input exists
-                if (tokens.length == 0) {
-                    System.out.println("Invalid input. Please try again!");
-                    mainMenu();
+                    out.println("An error occurred. Please try again!");
                     continue;
                 }
-                // determine which operation to perform
-                String operation = tokens[0];
-                if (operation.equals("create_patient")) {
-                    createPatient(tokens);
-                } else if (operation.equals("create_caregiver")) {
-                    createCaregiver(tokens);
-                } else if (operation.equals("login_patient")) {
-                    loginPatient(tokens);
-                } else if (operation.equals("login_caregiver")) {
-                    loginCaregiver(tokens);
-                } else if (operation.equals("search_caregiver_schedule")) {
-                    searchCaregiverSchedule(tokens);
-                } else if (operation.equals("reserve")) {
-                    reserve(tokens);
-                } else if (operation.equals("upload_availability")) {
-                    uploadAvailability(tokens);
-                } else if (operation.equals("cancel")) {
-                    cancel(tokens);
-                } else if (operation.equals("add_doses")) {
-                    addDoses(tokens);
-                } else if (operation.equals("show_appointments")) {
-                    showAppointments(tokens);
-                } else if (operation.equals("logout")) {
-                    logout(tokens);
-                } else if (operation.equals("quit")) {
-                    System.out.println("Bye!");
+                // end of input behaves like quit
+                if (!execute(session, response == null ? "quit" : response)) {
+                    out.flush();
+                    StorageManager.getStorage().close();
                     return;
-                } else {
-                    System.out.println("Invalid operation name! Please try again.");
                 }
-                mainMenu();
+                mainMenu(out);
             }
         }
 
-        private static void mainMenu() {
-            System.out.println();
-            System.out.println("*** Please enter one of the following commands ***");
-            System.out.println("> create_patient <username> <password>");
-            System.out.println("> create_caregiver <username> <password>");
-            System.out.println("> login_patient <username> <password>");
-            System.out.println("> login_caregiver <username> <password>");
-            System.out.println("> search_caregiver_schedule <date>");
-            System.out.println("> reserve <date> <vaccine>");
-            System.out.println("> upload_availability <date>");
-            System.out.println("> cancel <appointment_id>"); // TODO: implement cancel (extra credit)
-            System.out.println("> add_doses <vaccine> <number>");
-            System.out.println("> show_appointments");
-            System.out.println("> logout");
-            System.out.println("> quit");
-            System.out.println();
-        }
-
-    private static void createPatient(String[] tokens) {
+    /**
+     * Runs a single command line in the given session. Returns false if the command was quit.
+     */
+    public static boolean execute(Session session, String response) {
+        PrintWriter out = session.getOut();
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            out.println("Invalid input. Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        // time every command, counting unknown ones together
+        long start = Metrics.startCommand();
+        boolean known = true;
+        try {
+            if (operation.equals("create_patient")) {
+                createPatient(session, tokens);
+            } else if (operation.equals("create_caregiver")) {
+                createCaregiver(session, tokens);
+            } else if (operation.equals("login_patient")) {
+                loginPatient(session, tokens);
+            } else if (operation.equals("login_caregiver")) {
+                loginCaregiver(session, tokens);
+            } else if (operation.equals("search_caregiver_schedule")) {
+                searchCaregiverSchedule(session, tokens);
+            } else if (operation.equals("reserve")) {
+                reserve(session, tokens);
+            } else if (operation.equals("upload_availability")) {
+                uploadAvailability(session, tokens);
+            } else if (operation.equals("cancel")) {
+                cancel(session, tokens);
+            } else if (operation.equals("add_doses")) {
+                addDoses(session, tokens);
+            } else if (operation.equals("import")) {
+                importCsv(session, tokens);
+            } else if (operation.equals("show_appointments")) {
+                showAppointments(session, tokens);
+            } else if (operation.equals("logout")) {
+                logout(session, tokens);
+            } else if (operation.equals("quit")) {
+                out.println("Bye!");
+                return false;
+            } else {
+                out.println("Invalid operation name! Please try again.");
+                known = false;
+            }
+        } finally {
+            Metrics.endCommand(known ? operation : "invalid", start);
+        }
+        return true;
+    }
+
+        static void mainMenu(PrintWriter out) {
+            out.println();
+            out.println("*** Please enter one of the following commands ***");
+            out.println("> create_patient <username> <password>");
+            out.println("> create_caregiver <username> <password>");
+            out.println("> login_patient <username> <password>");
+            out.println("> login_caregiver <username> <password>");
+            out.println("> search_caregiver_schedule <date> [format human | csv | jsonl]");
+            out.println("> search_caregiver_schedule <from_date> [<to_date>] [first <n>] [names] [format ...]");
+            out.println("> reserve <date> <vaccine>");
+            out.println("> upload_availability <date> [<HH:mm>-<HH:mm>]");
+            out.println("> upload_availability <from_date> <to_date> [daily | weekdays | weekends | mon,wed,...]");
+            out.println("> cancel <appointment_id>");
+            out.println("> add_doses <vaccine> <number>");
+            out.println("> import <csv_file> [batch_size]");
+            out.println("> show_appointments [from <date>] [to <date>] [limit <n>] [after <date>,<id>] [format ...]");
+            out.println("> logout");
+            out.println("> quit");
+            out.println();
+        }
+
+    private static void createPatient(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsPatient(out, username)) {
+            out.println("Username taken, try again!");
             return;
         }
         if (!isStrongPassword(password)) {
-            System.out.println("Password must be at least 8 characters, have uppercase and lowercase letters, " +
+            out.println("Password must be at least 8 characters, have uppercase and lowercase letters, " +
                     "numbers, and at least one special character (!, @, #, ?).");
             return;
         }
@@ -121,50 +187,44 @@ public class Scheduler {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             // save to patient information to our database
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // taken since the check above, by another session or instance
+            out.println("Username taken, try again!");
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(PrintWriter out, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.getStorage().patientExists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
 
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(out, username)) {
+            out.println("Username taken, try again!");
             return;
         }
         if (!isStrongPassword(password)) {
-            System.out.println("Password must be at least 8 characters, have uppercase and lowercase letters, " +
+            out.println("Password must be at least 8 characters, have uppercase and lowercase letters, " +
                     "numbers, and at least one special character (!, @, #, ?).");
             return;
         }
@@ -176,34 +236,27 @@ public class Scheduler {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // taken since the check above, by another session or instance
+            out.println("Username taken, try again!");
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(PrintWriter out, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.getStorage().caregiverExists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static boolean isStrongPassword(String password) {
+    static boolean isStrongPassword(String password) {
         if (password.length() < 8) {
             return false;
         }
@@ -246,16 +299,17 @@ public class Scheduler {
         return hasSpecialCharacter;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static void loginPatient(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -265,28 +319,29 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            out.println("Logged in as: " + username);
+            session.loginPatient(patient);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -296,87 +351,136 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            out.println("Logged in as: " + username);
+            session.loginCaregiver(caregiver);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            out.println("Please login first");
             return;
         }
-        if (tokens.length != 2) {
-            System.out.println("Please try again");
+        // search_caregiver_schedule <date> [format <format>]
+        // search_caregiver_schedule <from_date> [<to_date>] [first <n>] [names] [format <format>]
+        if (tokens.length < 2) {
+            out.println("Please try again");
             return;
         }
 
-        String date = tokens[1];
-        Date dateStr;
+        Date from;
+        Date to = null;
+        int maxDays = Integer.MAX_VALUE;
+        boolean names = false;
+        boolean singleDay = true;
+        ResultRenderer renderer = ResultRenderer.create(FORMAT, out);
         try {
-            dateStr = Date.valueOf(date);
+            from = Date.valueOf(tokens[1]);
+            int i = 2;
+            if (i < tokens.length && !tokens[i].equals("first") && !tokens[i].equals("names")
+                    && !tokens[i].equals("format")) {
+                to = Date.valueOf(tokens[i++]);
+                singleDay = false;
+            }
+            while (i < tokens.length) {
+                if (tokens[i].equals("first") && i + 1 < tokens.length) {
+                    maxDays = Integer.parseInt(tokens[i + 1]);
+                    if (maxDays <= 0) {
+                        throw new IllegalArgumentException("Number of days must be positive: " + tokens[i + 1]);
+                    }
+                    singleDay = false;
+                    i += 2;
+                } else if (tokens[i].equals("names")) {
+                    names = true;
+                    singleDay = false;
+                    i++;
+                } else if (tokens[i].equals("format") && i + 1 < tokens.length) {
+                    renderer = ResultRenderer.create(tokens[i + 1], out);
+                    i += 2;
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + tokens[i]);
+                }
+            }
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String caregiverQuery = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
-        String vaccineQuery = "SELECT Name, Doses FROM Vaccines";
-
+        Storage storage = StorageManager.getStorage();
         try {
-            // Retrieve available caregivers
-            PreparedStatement caregiverStmt = con.prepareStatement(caregiverQuery);
-            caregiverStmt.setDate(1, Date.valueOf(date));
-            ResultSet caregiverResults = caregiverStmt.executeQuery();
-
-            while (caregiverResults.next()) {
-                System.out.println(caregiverResults.getString("Username"));
+            if (singleDay && SLOTS.isEnabled()) {
+                // a single day divided into slots lists each available caregiver's open slots
+                for (Map.Entry<String, Long> caregiver : storage.findAvailableSlots(from).entrySet()) {
+                    renderer.row("caregiver").field("username", caregiver.getKey())
+                            .list("slots", SLOTS.startTimes(caregiver.getValue())).end();
+                }
+                printVaccines(renderer, storage.listVaccines());
+                return;
             }
-
-            caregiverResults.close();
-            caregiverStmt.close();
-
-            // Retrieve vaccines and doses
-            PreparedStatement vaccineStmt = con.prepareStatement(vaccineQuery);
-            ResultSet vaccineResults = vaccineStmt.executeQuery();
-
-            while (vaccineResults.next()) {
-                String vaccineName = vaccineResults.getString("Name");
-                int doses = vaccineResults.getInt("Doses");
-                System.out.println(vaccineName + " " + doses);
+            if (singleDay) {
+                // a single day lists the available caregivers, then the vaccines and doses
+                AvailabilitySummary summary = storage.searchAvailability(from, from, 1, true);
+                for (DayAvailability day : summary.getDays()) {
+                    for (String caregiver : day.getCaregivers()) {
+                        renderer.row("caregiver").field("username", caregiver).end();
+                    }
+                }
+                printVaccines(renderer, summary.getVaccines());
+                return;
             }
 
-            vaccineResults.close();
-            vaccineStmt.close();
+            // a range lists each day with caregivers available, how many there are and optionally who, then the
+            // vaccines and doses once; without an end date it needs a number of days to stop after
+            if (to == null && maxDays == Integer.MAX_VALUE) {
+                out.println("Please try again");
+                return;
+            }
+            AvailabilitySummary summary = storage.searchAvailability(from, to == null ? AppointmentQuery.MAX_DATE : to,
+                    maxDays, names);
+            if (summary.getDays().isEmpty()) {
+                renderer.message("No caregiver is available on the selected dates.");
+            }
+            for (DayAvailability day : summary.getDays()) {
+                renderer.row("day").field("date", day.getDate()).field("caregivers", day.getCaregiverCount());
+                if (names) {
+                    renderer.list("usernames", day.getCaregivers());
+                }
+                renderer.end();
+            }
+            printVaccines(renderer, summary.getVaccines());
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
+    private static void printVaccines(ResultRenderer renderer, List<Vaccine> vaccines) {
+        for (Vaccine vaccine : vaccines) {
+            renderer.row("vaccine").field("name", vaccine.getVaccineName())
+                    .field("doses", vaccine.getAvailableDoses()).end();
+        }
+    }
+
+    private static void reserve(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            out.println("Please login first.");
             return;
         }
-        if (currentPatient == null) {
-            System.out.println("Please login as a patient first!");
+        if (session.getCurrentPatient() == null) {
+            out.println("Please login as a patient first!");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             return;
         }
 
@@ -385,236 +489,355 @@ public class Scheduler {
         try {
             dateStr = Date.valueOf(date);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             return;
         }
         String vaccineName = tokens[2];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
         try {
-            con.setAutoCommit(false);
-
-            String vaccineQuery = "SELECT Doses FROM Vaccines WHERE Name = ?";
-            try (PreparedStatement vaccineStmt = con.prepareStatement(vaccineQuery)) {
-                vaccineStmt.setString(1, vaccineName);
-                ResultSet vaccineResult = vaccineStmt.executeQuery();
-
-                if (!vaccineResult.next() || vaccineResult.getInt("Doses") <= 0) {
-                    System.out.println("Not enough available doses. Please try again.");
-                    return;
-                }
-            }
-
-            String caregiverQuery =
-                    "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username ASC";
-            String caregiverUsername = null;
-
-            try (PreparedStatement caregiverStmt = con.prepareStatement(caregiverQuery)) {
-                caregiverStmt.setDate(1, Date.valueOf(date));
-                ResultSet caregiverResult = caregiverStmt.executeQuery();
-
-                if (!caregiverResult.next()) {
-                    System.out.println("No caregiver is available on the selected date. Please try again.");
-                    return;
-                }
-                caregiverUsername = caregiverResult.getString("Username");
-            }
-
-            String maxIdQuery = "SELECT MAX(ID) AS MaxID FROM Appointments";
-            int appointmentId = 1;
-
-            try (PreparedStatement maxIdStmt = con.prepareStatement(maxIdQuery);
-                 ResultSet maxIdResult = maxIdStmt.executeQuery()) {
-                if (maxIdResult.next()) {
-                    appointmentId = maxIdResult.getInt("MaxID") + 1;
-                }
+            Appointment appointment = StorageManager.getStorage().reserve(dateStr, vaccineName,
+                    session.getCurrentPatient().getUsername());
+            out.println("Appointment ID " + appointment.getId() + ", Caregiver username " +
+                    appointment.getCaregiverUsername() + (appointment.getStartTime() == null ? ""
+                    : ", Time " + appointment.getStartTime().toLocalTime()));
+        } catch (ReservationException e) {
+            if (e.getReason() == ReservationException.Reason.NOT_ENOUGH_DOSES) {
+                out.println("Not enough available doses. Please try again.");
+            } else {
+                out.println("No caregiver is available on the selected date. Please try again.");
             }
+        } catch (SQLException e) {
+            out.println("An error occurred while processing your request. Please try again.");
+            e.printStackTrace();
+        }
+    }
 
-            String reserveAppointment =
-                    "INSERT INTO Appointments (ID, Time, Vaccine, Caregiver, Patient) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement appointmentStmt = con.prepareStatement(reserveAppointment)) {
-                appointmentStmt.setInt(1, appointmentId);
-                appointmentStmt.setDate(2, Date.valueOf(date));
-                appointmentStmt.setString(3, vaccineName);
-                appointmentStmt.setString(4, caregiverUsername);
-                appointmentStmt.setString(5, currentPatient.getUsername());
-                appointmentStmt.executeUpdate();
+    private static void uploadAvailability(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
+        // upload_availability <date>
+        // upload_availability <date> <HH:mm>-<HH:mm>
+        // upload_availability <from_date> <to_date> [daily | weekdays | weekends | mon,wed,...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: a single date, or a range with an optional recurrence pattern
+        if (tokens.length < 2 || tokens.length > 4) {
+            out.println("Please try again!");
+            return;
+        }
+        if (tokens.length == 2) {
+            String date = tokens[1];
+            try {
+                Date d = Date.valueOf(date);
+                session.getCurrentCaregiver().uploadAvailability(d);
+                out.println("Availability uploaded!");
+            } catch (IllegalArgumentException e) {
+                out.println("Please enter a valid date!");
+            } catch (SQLException e) {
+                out.println("Error occurred when uploading availability");
+                e.printStackTrace();
             }
-
-            String updateCaregiver = "DELETE FROM Availabilities WHERE Username = ? AND Time = ?";
-            try (PreparedStatement updateCaregiverStmt = con.prepareStatement(updateCaregiver)) {
-                updateCaregiverStmt.setString(1, caregiverUsername);
-                updateCaregiverStmt.setDate(2, Date.valueOf(date));
-                updateCaregiverStmt.executeUpdate();
+            return;
+        }
+        if (tokens.length == 3 && tokens[2].contains(":")) {
+            // the slots of one day that start in the range and end by its end
+            Date d;
+            long slots;
+            try {
+                d = Date.valueOf(tokens[1]);
+                String[] range = tokens[2].split("-", 2);
+                slots = SLOTS.isEnabled() && range.length == 2
+                        ? SLOTS.slots(LocalTime.parse(range[0]), LocalTime.parse(range[1])) : 0;
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                out.println("Please try again!");
+                return;
             }
-
-            String updateVaccine = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ?";
-            try (PreparedStatement updateVaccineStmt = con.prepareStatement(updateVaccine)) {
-                updateVaccineStmt.setString(1, vaccineName);
-                updateVaccineStmt.executeUpdate();
+            if (slots == 0) {
+                out.println("Please try again!");
+                return;
             }
-
-            con.commit();
-
-            System.out.println("Appointment ID " + appointmentId + ", Caregiver username " + caregiverUsername);
-        } catch (SQLException | IllegalArgumentException e) {
             try {
-                con.rollback();
-            } catch (SQLException rollbackEx) {
-                rollbackEx.printStackTrace();
+                session.getCurrentCaregiver().uploadAvailability(d, slots);
+                out.println("Availability uploaded! " + Long.bitCount(slots) + " slots");
+            } catch (SQLException e) {
+                out.println("Error occurred when uploading availability");
+                e.printStackTrace();
             }
-            System.out.println("An error occurred while processing your request. Please try again.");
+            return;
+        }
+
+        List<Date> dates;
+        try {
+            Recurrence recurrence = Recurrence.parse(tokens.length == 4 ? tokens[3] : "daily");
+            dates = recurrence.expand(Date.valueOf(tokens[1]).toLocalDate(), Date.valueOf(tokens[2]).toLocalDate());
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date range!");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            int inserted = session.getCurrentCaregiver().uploadAvailability(dates);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            out.println("Availability uploaded! " + inserted + " of " + dates.size() +
+                    " dates added in " + elapsedMillis + " ms");
+        } catch (SQLException e) {
+            out.println("Error occurred when uploading availability");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+    private static void cancel(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
+        // cancel <appointment_id>
+        // check 1: patients and caregivers can cancel their own appointments
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            out.println("Please login first.");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            out.println("Please try again");
             return;
         }
-        String date = tokens[1];
+        int appointmentId;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            out.println("Please enter a valid appointment ID!");
+            return;
+        }
+        // the appointment, its caregiver slot and its dose are all restored in one transaction, so a cancel
+        // racing with another cancel or a reservation never frees a slot or dose twice
+        try {
+            Storage storage = StorageManager.getStorage();
+            Appointment cancelled;
+            if (session.getCurrentPatient() != null) {
+                cancelled = storage.cancelPatientAppointment(appointmentId, session.getCurrentPatient().getUsername());
+            } else {
+                cancelled = storage.cancelCaregiverAppointment(appointmentId,
+                        session.getCurrentCaregiver().getUsername());
+            }
+            if (cancelled == null) {
+                out.println("You have no appointment with ID " + appointmentId + ". Please try again.");
+            } else {
+                out.println("Appointment ID " + cancelled.getId() + " cancelled");
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            out.println("An error occurred while processing your request. Please try again.");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
-    }
-
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            out.println("Please enter a valid number of doses!");
+            return;
+        }
+        // check 3: the number of doses must be positive
+        if (doses <= 0) {
+            out.println("Please enter a positive number of doses!");
+            return;
+        }
+        // the doses are added in one relative update that also creates the vaccine if it does not exist yet, so
+        // concurrent add_doses calls cannot lose each other's doses
+        try {
+            Vaccine vaccine = new Vaccine.VaccineBuilder(vaccineName, 0).build();
+            vaccine.increaseAvailableDoses(doses);
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            out.println("Error occurred when adding doses");
             e.printStackTrace();
+            return;
+        }
+        out.println("Doses updated!");
+    }
+
+    private static void importCsv(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
+        // import <csv_file> [batch_size]
+        // check 1: onboarding is done by caregivers
+        if (session.getCurrentCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
+        // check 2: the file name and an optional batch size
+        if (tokens.length != 2 && tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        int batchSize = CsvImporter.DEFAULT_BATCH_SIZE;
+        if (tokens.length == 3) {
             try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                batchSize = Integer.parseInt(tokens[2]);
+            } catch (NumberFormatException e) {
+                out.println("Please try again!");
+                return;
             }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+        }
+        // check 3: the file is read on this machine, so server clients may not name one
+        if (session.isRemote()) {
+            out.println("Importing is only available in the console and batch mode!");
+            return;
+        }
+        try {
+            Path file = importPath(tokens[1]);
+            if (file == null) {
+                out.println("Only files in the import directory can be imported!");
+                return;
+            }
+            CsvImporter.Result result = new CsvImporter(StorageManager.getStorage(), batchSize)
+                    .importFile(file);
+            out.println("Imported " + result.getUsers() + " users and " + result.getDoses() +
+                    " doses from " + result.getLines() + " rows in " + result.getElapsedMillis() + " ms (" +
+                    Math.round(result.getRowsPerSecond()) + " rows/s), " + result.getRejected() + " rejected");
+            for (String rejection : result.getRejections()) {
+                out.println("  rejected " + rejection);
             }
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again!");
+        } catch (IOException e) {
+            out.println("Could not read " + tokens[1]);
+        } catch (SQLException e) {
+            out.println("Error occurred when importing");
+            e.printStackTrace();
         }
-        System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+    // resolves a file to import, or returns null if ImportDirectory is set and the file is outside it
+    private static Path importPath(String name) throws IOException {
+        String directory = System.getenv("ImportDirectory");
+        if (directory == null || directory.isEmpty()) {
+            return Paths.get(name);
+        }
+        Path root = Paths.get(directory).toRealPath();
+        // resolved through symbolic links, so neither ".." nor a link leads outside the directory
+        Path file = root.resolve(name).toRealPath();
+        return file.startsWith(root) ? file : null;
+    }
+
+    private static void showAppointments(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            out.println("Please login first");
             return;
         }
-        if (tokens.length != 1) {
-            System.out.println("Please try again");
+        // show_appointments [from <date>] [to <date>] [limit <n>] [after <date>,<id>] [format <format>]
+        // options come in pairs after the operation name
+        if (tokens.length % 2 != 1) {
+            out.println("Please try again");
             return;
         }
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
+        AppointmentQuery.AppointmentQueryBuilder builder = new AppointmentQuery.AppointmentQueryBuilder();
+        StringBuilder nextPage = new StringBuilder(tokens[0]);
+        int limit = 0;
+        ResultRenderer renderer = ResultRenderer.create(FORMAT, out);
         try {
-            // Determine if the logged-in user is a patient or a caregiver
-            if (currentPatient != null) {
-                // Query appointments for the logged-in patient
-                String patientQuery =
-                        "SELECT ID, Vaccine, Time, Caregiver FROM Appointments WHERE Patient = ? ORDER BY ID ASC";
-                try (PreparedStatement patientStmt = con.prepareStatement(patientQuery)) {
-                    patientStmt.setString(1, currentPatient.getUsername());
-                    ResultSet resultSet = patientStmt.executeQuery();
-
-                    while (resultSet.next()) {
-                        int id = resultSet.getInt("ID");
-                        String vaccine = resultSet.getString("Vaccine");
-                        String time = resultSet.getDate("Time").toString();
-                        String caregiver = resultSet.getString("Caregiver");
-                        System.out.println(id + " " + vaccine + " " + time + " " + caregiver);
+            for (int i = 1; i < tokens.length; i += 2) {
+                String value = tokens[i + 1];
+                if (tokens[i].equals("from")) {
+                    builder.from(Date.valueOf(value));
+                } else if (tokens[i].equals("to")) {
+                    builder.to(Date.valueOf(value));
+                } else if (tokens[i].equals("limit")) {
+                    limit = Integer.parseInt(value);
+                    if (limit <= 0) {
+                        throw new IllegalArgumentException("Limit must be positive: " + value);
                     }
-                }
-            } else if (currentCaregiver != null) {
-                // Query appointments for the logged-in caregiver
-                String caregiverQuery =
-                        "SELECT ID, Vaccine, Time, Patient FROM Appointments WHERE Caregiver = ? ORDER BY ID ASC";
-                try (PreparedStatement caregiverStmt = con.prepareStatement(caregiverQuery)) {
-                    caregiverStmt.setString(1, currentCaregiver.getUsername());
-                    ResultSet resultSet = caregiverStmt.executeQuery();
-
-                    while (resultSet.next()) {
-                        int id = resultSet.getInt("ID");
-                        String vaccine = resultSet.getString("Vaccine");
-                        String time = resultSet.getDate("Time").toString();
-                        String patient = resultSet.getString("Patient");
-                        System.out.println(id + " " + vaccine + " " + time + " " + patient);
+                } else if (tokens[i].equals("after")) {
+                    int comma = value.indexOf(',');
+                    if (comma < 0) {
+                        throw new IllegalArgumentException("Cursor must be <date>,<id>: " + value);
                     }
+                    builder.after(Date.valueOf(value.substring(0, comma)), Integer.parseInt(value.substring(comma + 1)));
+                    // replaced by the new cursor in the next page's command
+                    continue;
+                } else if (tokens[i].equals("format")) {
+                    renderer = ResultRenderer.create(value, out);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + tokens[i]);
                 }
+                nextPage.append(' ').append(tokens[i]).append(' ').append(value);
+            }
+            if (limit != 0) {
+                // one more than shown, to tell whether there is a next page
+                builder.limit(limit + 1);
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again");
+            return;
+        }
+
+        // each appointment is written as it is read, so a long history is never held in memory at once
+        boolean isPatient = session.getCurrentPatient() != null;
+        int pageSize = limit;
+        String with = isPatient ? "caregiver" : "patient";
+        ResultRenderer rows = renderer;
+        Appointment[] last = new Appointment[1];
+        int[] shown = new int[1];
+        Consumer<Appointment> printer = appointment -> {
+            if (pageSize != 0 && shown[0] == pageSize) {
+                return;
+            }
+            rows.row("appointment").field("id", appointment.getId()).field("vaccine", appointment.getVaccineName())
+                    .field("date", appointment.getTime())
+                    .field("time", appointment.getStartTime() == null ? null : appointment.getStartTime().toLocalTime())
+                    .field(with, isPatient ? appointment.getCaregiverUsername() : appointment.getPatientUsername())
+                    .end();
+            last[0] = appointment;
+            shown[0]++;
+        };
+        Storage storage = StorageManager.getStorage();
+        try {
+            int count;
+            if (isPatient) {
+                count = storage.streamPatientAppointments(session.getCurrentPatient().getUsername(), builder.build(),
+                        printer);
+            } else {
+                count = storage.streamCaregiverAppointments(session.getCurrentCaregiver().getUsername(),
+                        builder.build(), printer);
+            }
+            if (count > shown[0]) {
+                renderer.row("next", "More appointments:")
+                        .field("command", nextPage + " after " + last[0].getTime() + "," + last[0].getId()).end();
             }
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void logout(Session session, String[] tokens) {
+        PrintWriter out = session.getOut();
         // Ensure no unnecessary parameters are passed
         if (tokens.length != 1) {
-            System.out.println("Please try again");
+            out.println("Please try again");
             return;
         }
 
         // Check if a user is logged in
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+        if (session.getCurrentPatient() == null && session.getCurrentCaregiver() == null) {
+            out.println("Please login first");
             return;
         }
 
         // Log out the user
-        currentPatient = null;
-        currentCaregiver = null;
-        System.out.println("Successfully logged out");
+        session.logout();
+        out.println("Successfully logged out");
     }
 }
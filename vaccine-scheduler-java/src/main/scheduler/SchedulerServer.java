@@ -0,0 +1,267 @@
+package scheduler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import scheduler.db.StorageManager;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the scheduler commands to many users at once over HTTP on the loopback interface.
+ *
+ * <pre>
+ * POST /session              starts a session and returns its token
+ * POST /command              runs the command line in the request body in the session given by
+ *                            the "Authorization: Bearer &lt;token&gt;" header, and returns its output
+ * DELETE /session            ends the session
+ * </pre>
+ * Each session keeps its own login, replacing the single logged-in user of the console. Commands
+ * of one session run one at a time, while different sessions run in parallel. Requests are
+ * handled on a virtual thread each when the JVM supports them (Java 21+), and on a cached pool of
+ * platform threads otherwise; a session's commands are serialized with a {@link ReentrantLock}
+ * rather than a monitor, so a virtual thread waiting on JDBC does not pin its carrier thread.
+ * Sessions idle for longer than SessionIdleMinutes (default 30) expire, and at most MaxSessions
+ * (default 10,000) exist at once; starting another is refused with 503 until one ends.
+ *
+ * A session only costs memory while it is idle, but every command holds a pooled connection while
+ * it runs, so at most PoolMaxSize commands (default 10) run at once and the others wait up to
+ * PoolMaxWaitMillis (default 5000) for a connection before failing. For thousands of concurrent
+ * users raise PoolMaxSize as far as the database allows (e.g. 50-100 on a mid-sized SQL Server)
+ * and PoolMaxWaitMillis to the longest wait acceptable under peak load.
+ */
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final int DEFAULT_SESSION_IDLE_MINUTES = 30;
+    private static final int DEFAULT_MAX_SESSIONS = 10_000;
+    private static final int TOKEN_BYTES = 24;
+    // longest command line accepted, far beyond any valid command
+    private static final int MAX_COMMAND_BYTES = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService handlers = newRequestExecutor();
+    private final ScheduledExecutorService expiry;
+    private final Map<String, ServerSession> sessions = new ConcurrentHashMap<>();
+    // one permit per session that may still be started
+    private final Semaphore sessionSlots;
+    private final SecureRandom random = new SecureRandom();
+    private final long sessionIdleMillis;
+
+    public SchedulerServer(int port, int sessionIdleMinutes, int maxSessions) throws IOException {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("Maximum number of sessions must be positive!");
+        }
+        this.sessionIdleMillis = TimeUnit.MINUTES.toMillis(sessionIdleMinutes);
+        this.sessionSlots = new Semaphore(maxSessions);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/session", this::handleSession);
+        server.createContext("/command", this::handleCommand);
+        server.setExecutor(handlers);
+        expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, sessionIdleMillis / 4);
+        expiry.scheduleAtFixedRate(this::expireSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a server on the port given in args (default 8080) that serves until the JVM exits.
+     * Returns 0 once the server is running, 1 if it could not be started.
+     */
+    static int run(String[] args) {
+        int port = DEFAULT_PORT;
+        if (args.length > 0) {
+            try {
+                port = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                System.out.println("Usage: Scheduler --server [port]");
+                return 1;
+            }
+        }
+        try {
+            SchedulerServer server = new SchedulerServer(port,
+                    Util.envInt("SessionIdleMinutes", DEFAULT_SESSION_IDLE_MINUTES),
+                    Util.envInt("MaxSessions", DEFAULT_MAX_SESSIONS));
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.start();
+            System.out.println("Serving on http://localhost:" + port);
+            return 0;
+        } catch (IOException e) {
+            System.out.println("Could not start the server on port " + port + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        handlers.shutdown();
+        expiry.shutdownNow();
+        StorageManager.getStorage().close();
+    }
+
+    public int getActiveSessions() {
+        return sessions.size();
+    }
+
+    private void handleSession(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (method.equals("POST")) {
+            if (!sessionSlots.tryAcquire()) {
+                respond(exchange, 503, "Too many sessions, try again later\n");
+                return;
+            }
+            String token = newToken();
+            sessions.put(token, new ServerSession());
+            respond(exchange, 200, token + "\n");
+        } else if (method.equals("DELETE")) {
+            String token = token(exchange);
+            if (token == null || !endSession(token)) {
+                respond(exchange, 401, "Unknown session\n");
+            } else {
+                respond(exchange, 200, "Session ended\n");
+            }
+        } else {
+            respond(exchange, 405, "Method not allowed\n");
+        }
+    }
+
+    private void handleCommand(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Method not allowed\n");
+            return;
+        }
+        String token = token(exchange);
+        ServerSession session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            respond(exchange, 401, "Unknown session\n");
+            return;
+        }
+        String command = readCommand(exchange.getRequestBody());
+        if (command == null) {
+            respond(exchange, 413, "Command too long\n");
+            return;
+        }
+
+        StringWriter output = new StringWriter();
+        session.lock.lock();
+        try {
+            session.lastUsed = System.currentTimeMillis();
+            session.setOut(new PrintWriter(output));
+            if (!Scheduler.execute(session, command)) {
+                // quit ends the session rather than the server
+                endSession(token);
+            }
+            session.getOut().flush();
+        } finally {
+            session.lock.unlock();
+        }
+        respond(exchange, 200, output.toString());
+    }
+
+    private void expireSessions() {
+        long cutoff = System.currentTimeMillis() - sessionIdleMillis;
+        for (Map.Entry<String, ServerSession> entry : sessions.entrySet()) {
+            if (entry.getValue().lastUsed < cutoff && sessions.remove(entry.getKey(), entry.getValue())) {
+                sessionSlots.release();
+            }
+        }
+    }
+
+    // returns false if there was no such session; frees its slot exactly once otherwise
+    private boolean endSession(String token) {
+        if (sessions.remove(token) == null) {
+            return false;
+        }
+        sessionSlots.release();
+        return true;
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // returns null if the request has no bearer token
+    private static String token(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return null;
+        }
+        return authorization.substring("Bearer ".length()).trim();
+    }
+
+    // returns null if the body is longer than MAX_COMMAND_BYTES
+    private static String readCommand(InputStream body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        int n;
+        while ((n = body.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+            if (bytes.size() > MAX_COMMAND_BYTES) {
+                return null;
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Uses a virtual thread per request where the JVM has them, and a cached thread pool
+     * otherwise. Looked up reflectively so the code still builds and runs on Java 17.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "request-handler");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static class ServerSession extends Session {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private ServerSession() {
+            super(null, true);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintWriter;
+
+/**
+ * State of one stream of commands: who is logged in and where the output goes. The interactive
+ * console has one session; batch scripts and server clients each get their own.
+ */
+public class Session {
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+
+    private PrintWriter out;
+    // whether the commands come from a network client rather than the machine running the scheduler
+    private final boolean remote;
+
+    public Session(PrintWriter out) {
+        this(out, false);
+    }
+
+    public Session(PrintWriter out, boolean remote) {
+        this.out = out;
+        this.remote = remote;
+    }
+
+    // Getters
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public PrintWriter getOut() {
+        return out;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /**
+     * Redirects the session's output, for sessions that outlive a single output stream such as
+     * server sessions, which answer each request separately.
+     */
+    public void setOut(PrintWriter out) {
+        this.out = out;
+    }
+
+    /**
+     * Returns a session with the same login that writes to the given output, for running a
+     * command that does not change the session alongside others.
+     */
+    public Session copy(PrintWriter out) {
+        Session copy = new Session(out, remote);
+        copy.currentCaregiver = currentCaregiver;
+        copy.currentPatient = currentPatient;
+        return copy;
+    }
+
+    public void loginCaregiver(Caregiver caregiver) {
+        this.currentCaregiver = caregiver;
+        this.currentPatient = null;
+    }
+
+    public void loginPatient(Patient patient) {
+        this.currentPatient = patient;
+        this.currentCaregiver = null;
+    }
+
+    public void logout() {
+        this.currentCaregiver = null;
+        this.currentPatient = null;
+    }
+}
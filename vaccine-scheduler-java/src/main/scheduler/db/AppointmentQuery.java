@@ -0,0 +1,113 @@
+package scheduler.db;
+
+import java.sql.Date;
+
+/**
+ * Selects one page of a user's appointments in (Time, ID) order: those in an optional date range
+ * that come after an optional cursor, up to an optional limit. The cursor is the (Time, ID) of the
+ * last appointment of the previous page, so each page starts where the last one ended without
+ * skipping over the rows before it.
+ */
+public class AppointmentQuery {
+
+    // bounds used when no range is given, so that every query has the same shape
+    public static final Date MIN_DATE = Date.valueOf("0001-01-01");
+    public static final Date MAX_DATE = Date.valueOf("9999-12-31");
+
+    private final Date from;
+    private final Date to;
+    private final Date afterTime;
+    private final int afterId;
+    private final int limit;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.from = builder.from;
+        this.to = builder.to;
+        this.afterTime = builder.afterTime;
+        this.afterId = builder.afterId;
+        this.limit = builder.limit;
+    }
+
+    // Getters
+    /**
+     * Returns the first date included, {@link #MIN_DATE} if there is no lower bound.
+     */
+    public Date getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the last date included, {@link #MAX_DATE} if there is no upper bound.
+     */
+    public Date getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the time of the cursor, {@link #MIN_DATE} if the query starts at the beginning.
+     */
+    public Date getAfterTime() {
+        return afterTime;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    /**
+     * Returns the maximum number of appointments, {@link Integer#MAX_VALUE} if there is no limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns true if the appointment with the given time and ID is selected, not counting the limit.
+     */
+    public boolean matches(Date time, int id) {
+        if (time.before(from) || time.after(to)) {
+            return false;
+        }
+        int cmp = time.compareTo(afterTime);
+        return cmp > 0 || (cmp == 0 && id > afterId);
+    }
+
+    public static class AppointmentQueryBuilder {
+        private Date from = MIN_DATE;
+        private Date to = MAX_DATE;
+        private Date afterTime = MIN_DATE;
+        private int afterId = Integer.MIN_VALUE;
+        private int limit = Integer.MAX_VALUE;
+
+        public AppointmentQueryBuilder from(Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public AppointmentQueryBuilder to(Date to) {
+            this.to = to;
+            return this;
+        }
+
+        /**
+         * Starts after the appointment with the given time and ID.
+         */
+        public AppointmentQueryBuilder after(Date time, int id) {
+            this.afterTime = time;
+            this.afterId = id;
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Limit must be positive!");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            return new AppointmentQuery(this);
+        }
+    }
+}
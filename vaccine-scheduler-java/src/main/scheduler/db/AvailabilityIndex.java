@@ -0,0 +1,204 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Thread-safe in-memory index from a date to the caregivers available on it, sorted by username
+ * (case-insensitively, like the database).
+ *
+ * Caregivers get dense integer IDs and each date holds a {@link CaregiverBitmap} of the IDs
+ * available on it, instead of a set of usernames, so a year of availability for 5000 caregivers
+ * takes a few hundred kilobytes. "Who is free on D" reads one bitmap, "is X free on D" tests one
+ * bit and "who is free on any day in a range" ORs the bitmaps together. With {@code offHeap} the
+ * bitmaps are kept in direct buffers outside the Java heap.
+ */
+public class AvailabilityIndex {
+
+    private final boolean offHeap;
+    private volatile State state = new State(new ArrayList<>());
+
+    public AvailabilityIndex() {
+        this(false);
+    }
+
+    public AvailabilityIndex(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Replaces the whole index with the given availabilities.
+     */
+    public void load(Map<Date, List<String>> availabilities) {
+        // IDs are handed out in username order, so lookups need not sort
+        TreeSet<String> usernames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (List<String> caregivers : availabilities.values()) {
+            usernames.addAll(caregivers);
+        }
+        State loaded = new State(new ArrayList<>(usernames));
+        for (Map.Entry<Date, List<String>> entry : availabilities.entrySet()) {
+            CaregiverBitmap bitmap = new CaregiverBitmap(offHeap);
+            for (String caregiver : entry.getValue()) {
+                bitmap.add(loaded.register(caregiver));
+            }
+            loaded.byDate.put(entry.getKey().toLocalDate(), bitmap);
+        }
+        state = loaded;
+    }
+
+    public void add(Date date, String caregiverUsername) {
+        State s = state;
+        int id = s.register(caregiverUsername);
+        s.byDate.computeIfAbsent(date.toLocalDate(), d -> new CaregiverBitmap(offHeap)).add(id);
+    }
+
+    public void remove(Date date, String caregiverUsername) {
+        State s = state;
+        Integer id = s.ids.get(key(caregiverUsername));
+        CaregiverBitmap bitmap = s.byDate.get(date.toLocalDate());
+        if (id != null && bitmap != null) {
+            bitmap.remove(id);
+        }
+    }
+
+    public boolean isAvailable(Date date, String caregiverUsername) {
+        State s = state;
+        Integer id = s.ids.get(key(caregiverUsername));
+        CaregiverBitmap bitmap = s.byDate.get(date.toLocalDate());
+        return id != null && bitmap != null && bitmap.contains(id);
+    }
+
+    /**
+     * Returns the caregivers available on the given date, ordered by username.
+     */
+    public List<String> caregivers(Date date) {
+        State s = state;
+        CaregiverBitmap bitmap = s.byDate.get(date.toLocalDate());
+        return bitmap == null ? new ArrayList<>() : s.usernames(bitmap.snapshot());
+    }
+
+    /**
+     * Returns the caregivers available on at least one day from {@code from} to {@code to}
+     * (inclusive), ordered by username.
+     */
+    public List<String> caregivers(Date from, Date to) {
+        State s = state;
+        long[] any = new long[0];
+        for (CaregiverBitmap bitmap : s.byDate.subMap(from.toLocalDate(), true, to.toLocalDate(), true).values()) {
+            any = bitmap.orInto(any);
+        }
+        return s.usernames(any);
+    }
+
+    /**
+     * Returns the first {@code maxDays} days from {@code from} to {@code to} (inclusive) with any
+     * caregiver available, with the caregivers' usernames if {@code withCaregivers} is true.
+     */
+    public List<DayAvailability> days(Date from, Date to, int maxDays, boolean withCaregivers) {
+        State s = state;
+        List<DayAvailability> days = new ArrayList<>();
+        for (Map.Entry<LocalDate, CaregiverBitmap> entry
+                : s.byDate.subMap(from.toLocalDate(), true, to.toLocalDate(), true).entrySet()) {
+            if (days.size() == maxDays) {
+                break;
+            }
+            // a copy, so the count and the usernames agree even while the bitmap changes
+            long[] words = entry.getValue().snapshot();
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            if (count > 0) {
+                days.add(new DayAvailability(Date.valueOf(entry.getKey()), count,
+                        withCaregivers ? s.usernames(words) : new ArrayList<>()));
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Returns the number of bytes the bitmaps take, on or off the heap.
+     */
+    public long bitmapBytes() {
+        long bytes = 0;
+        for (CaregiverBitmap bitmap : state.byDate.values()) {
+            bytes += bitmap.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private static String key(String caregiverUsername) {
+        return caregiverUsername.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The bitmaps and the caregiver IDs they refer to, replaced together on load.
+     */
+    private static class State {
+        private final NavigableMap<LocalDate, CaregiverBitmap> byDate = new ConcurrentSkipListMap<>();
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        // IDs below this were given in username order; caregivers registered since come after them
+        private final int sortedCount;
+        private volatile String[] usernames;
+        private int count = 0;
+
+        private State(List<String> sortedUsernames) {
+            this.sortedCount = sortedUsernames.size();
+            this.usernames = new String[Math.max(16, sortedCount)];
+            for (String username : sortedUsernames) {
+                register(username);
+            }
+        }
+
+        /**
+         * Returns the caregiver's ID, giving it the next one if it has none yet.
+         */
+        private int register(String username) {
+            Integer id = ids.get(key(username));
+            if (id != null) {
+                return id;
+            }
+            synchronized (this) {
+                id = ids.get(key(username));
+                if (id == null) {
+                    if (count == usernames.length) {
+                        usernames = Arrays.copyOf(usernames, count * 2);
+                    }
+                    // stored before the ID is published, so any bit set for it has a username
+                    usernames[count] = username;
+                    id = count++;
+                    ids.put(key(username), id);
+                }
+                return id;
+            }
+        }
+
+        private List<String> usernames(long[] words) {
+            String[] names = usernames;
+            List<String> result = new ArrayList<>();
+            boolean sorted = true;
+            for (int w = 0; w < words.length; w++) {
+                long bits = words[w];
+                while (bits != 0) {
+                    int id = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    sorted &= id < sortedCount;
+                    result.add(names[id]);
+                }
+            }
+            if (!sorted) {
+                result.sort(String.CASE_INSENSITIVE_ORDER);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package scheduler.db;
+
+import scheduler.model.Vaccine;
+
+import java.util.List;
+
+/**
+ * Result of {@link Storage#searchAvailability}: the days with available caregivers in a date range,
+ * and the stock of every vaccine read alongside them.
+ */
+public class AvailabilitySummary {
+    private final List<DayAvailability> days;
+    private final List<Vaccine> vaccines;
+
+    public AvailabilitySummary(List<DayAvailability> days, List<Vaccine> vaccines) {
+        this.days = days;
+        this.vaccines = vaccines;
+    }
+
+    // Getters
+    /**
+     * Returns the days with at least one available caregiver, in date order.
+     */
+    public List<DayAvailability> getDays() {
+        return days;
+    }
+
+    public List<Vaccine> getVaccines() {
+        return vaccines;
+    }
+}
@@ -0,0 +1,101 @@
+package scheduler.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A growable set of caregiver IDs stored as a bitmap of 64-bit words, either on the heap or in a
+ * direct buffer outside it. IDs are dense, so a few thousand caregivers take a few hundred bytes
+ * per bitmap; the words grow to the highest ID set and are never allocated for higher ones.
+ */
+class CaregiverBitmap {
+
+    private final boolean offHeap;
+    private LongBuffer words;
+
+    CaregiverBitmap(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.words = allocate(0);
+    }
+
+    /**
+     * Sets the bit for the ID. Returns false if it was already set.
+     */
+    synchronized boolean add(int id) {
+        int word = id >>> 6;
+        if (word >= words.capacity()) {
+            grow(word + 1);
+        }
+        long bit = 1L << id;
+        long current = words.get(word);
+        words.put(word, current | bit);
+        return (current & bit) == 0;
+    }
+
+    /**
+     * Clears the bit for the ID. Returns false if it was not set.
+     */
+    synchronized boolean remove(int id) {
+        int word = id >>> 6;
+        if (word >= words.capacity()) {
+            return false;
+        }
+        long bit = 1L << id;
+        long current = words.get(word);
+        words.put(word, current & ~bit);
+        return (current & bit) != 0;
+    }
+
+    synchronized boolean contains(int id) {
+        int word = id >>> 6;
+        return word < words.capacity() && (words.get(word) & (1L << id)) != 0;
+    }
+
+    /**
+     * Returns a copy of the words, so a lookup sees one consistent state of the bitmap.
+     */
+    synchronized long[] snapshot() {
+        long[] copy = new long[words.capacity()];
+        words.get(0, copy);
+        return copy;
+    }
+
+    /**
+     * ORs the bitmap into {@code target}, which is grown if needed, and returns the result.
+     */
+    synchronized long[] orInto(long[] target) {
+        if (target.length < words.capacity()) {
+            long[] grown = new long[words.capacity()];
+            System.arraycopy(target, 0, grown, 0, target.length);
+            target = grown;
+        }
+        for (int i = 0; i < words.capacity(); i++) {
+            target[i] |= words.get(i);
+        }
+        return target;
+    }
+
+    /**
+     * Returns the number of bytes the words take.
+     */
+    synchronized long sizeInBytes() {
+        return (long) words.capacity() * Long.BYTES;
+    }
+
+    private void grow(int minWords) {
+        // by a quarter at least, so caregivers registering one by one do not copy every time
+        LongBuffer grown = allocate(Math.max(minWords, words.capacity() + words.capacity() / 4));
+        for (int i = 0; i < words.capacity(); i++) {
+            grown.put(i, words.get(i));
+        }
+        words = grown;
+    }
+
+    private LongBuffer allocate(int count) {
+        if (offHeap) {
+            return ByteBuffer.allocateDirect(count * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return LongBuffer.allocate(count);
+    }
+}
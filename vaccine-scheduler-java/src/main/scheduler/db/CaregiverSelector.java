@@ -0,0 +1,203 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which of the caregivers available on a date a reservation tries first.
+ *
+ * Always taking the alphabetically first caregiver makes concurrent reservations for a date
+ * compete for the same Availabilities row, and books the same caregivers first every day. The
+ * other strategies spread reservations over the available caregivers:
+ * <ul>
+ *     <li>"first": by username, the original behaviour (the default),</li>
+ *     <li>"least-loaded": fewest appointments first, counting the reservations still in flight,
+ *     so concurrent reservations for a date pick different caregivers,</li>
+ *     <li>"random": in random order,</li>
+ *     <li>"round-robin": starting one caregiver further along the list for each reservation on
+ *     the same date.</li>
+ * </ul>
+ * Loads are counted in memory from the reservations and cancellations made through this
+ * instance, starting from the caregivers' upcoming appointments when it is {@link #seed seeded}.
+ * Reservations made by other instances are only counted at the next start.
+ */
+public interface CaregiverSelector {
+
+    /**
+     * Returns up to {@code max} of the caregivers available on the date, which are given in
+     * username order, in the order they should be tried.
+     */
+    List<String> order(Date date, Collection<String> available, int max);
+
+    /**
+     * Called before trying to book the caregiver.
+     */
+    default void booking(String caregiverUsername) {
+    }
+
+    /**
+     * Called when a booking was not made after all, or the appointment was cancelled.
+     */
+    default void released(String caregiverUsername) {
+    }
+
+    /**
+     * Reads whatever the strategy starts from out of storage, before the first reservation.
+     */
+    default void seed(Storage storage) throws SQLException {
+    }
+
+    /**
+     * Creates the strategy named by the CaregiverSelection environment variable.
+     */
+    static CaregiverSelector configured() {
+        String name = System.getenv("CaregiverSelection");
+        try {
+            return create(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ignoring invalid value for CaregiverSelection: " + name);
+            return new FirstAvailable();
+        }
+    }
+
+    static CaregiverSelector create(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("first")) {
+            return new FirstAvailable();
+        } else if (name.equalsIgnoreCase("least-loaded")) {
+            return new LeastLoaded();
+        } else if (name.equalsIgnoreCase("random")) {
+            return new RandomOrder();
+        } else if (name.equalsIgnoreCase("round-robin")) {
+            return new RoundRobin();
+        }
+        throw new IllegalArgumentException("Unknown caregiver selection: " + name);
+    }
+
+    class FirstAvailable implements CaregiverSelector {
+        @Override
+        public List<String> order(Date date, Collection<String> available, int max) {
+            List<String> first = new ArrayList<>(Math.min(max, available.size()));
+            for (String caregiver : available) {
+                if (first.size() == max) {
+                    break;
+                }
+                first.add(caregiver);
+            }
+            return first;
+        }
+    }
+
+    class LeastLoaded implements CaregiverSelector {
+        // appointments per caregiver, keyed by lower-case username
+        private final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+
+        @Override
+        public List<String> order(Date date, Collection<String> available, int max) {
+            // keeps the max least loaded seen so far, ordered by load; ties keep username order
+            List<String> chosen = new ArrayList<>(max + 1);
+            List<Integer> chosenLoads = new ArrayList<>(max + 1);
+            for (String caregiver : available) {
+                int load = load(caregiver);
+                int position = chosen.size();
+                while (position > 0 && chosenLoads.get(position - 1) > load) {
+                    position--;
+                }
+                if (position < max) {
+                    chosen.add(position, caregiver);
+                    chosenLoads.add(position, load);
+                    if (chosen.size() > max) {
+                        chosen.remove(max);
+                        chosenLoads.remove(max);
+                    }
+                }
+            }
+            return chosen;
+        }
+
+        /**
+         * Starts every caregiver at the number of appointments they have from today on.
+         */
+        @Override
+        public void seed(Storage storage) throws SQLException {
+            Map<String, Integer> appointments = storage.countCaregiverAppointments(Date.valueOf(LocalDate.now()));
+            for (Map.Entry<String, Integer> entry : appointments.entrySet()) {
+                loads.computeIfAbsent(key(entry.getKey()), k -> new AtomicInteger()).addAndGet(entry.getValue());
+            }
+        }
+
+        @Override
+        public void booking(String caregiverUsername) {
+            loads.computeIfAbsent(key(caregiverUsername), k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public void released(String caregiverUsername) {
+            AtomicInteger load = loads.get(key(caregiverUsername));
+            if (load != null) {
+                load.updateAndGet(n -> Math.max(0, n - 1));
+            }
+        }
+
+        private int load(String caregiverUsername) {
+            AtomicInteger load = loads.get(key(caregiverUsername));
+            return load == null ? 0 : load.get();
+        }
+
+        private static String key(String caregiverUsername) {
+            return caregiverUsername.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    class RandomOrder implements CaregiverSelector {
+        @Override
+        public List<String> order(Date date, Collection<String> available, int max) {
+            // a partial Fisher-Yates shuffle: only the first max places are drawn
+            List<String> shuffled = new ArrayList<>(available);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int count = Math.min(max, shuffled.size());
+            for (int i = 0; i < count; i++) {
+                int j = i + random.nextInt(shuffled.size() - i);
+                String swap = shuffled.get(i);
+                shuffled.set(i, shuffled.get(j));
+                shuffled.set(j, swap);
+            }
+            return new ArrayList<>(shuffled.subList(0, count));
+        }
+    }
+
+    class RoundRobin implements CaregiverSelector {
+        // the next starting position for each date; dates before today are dropped as new ones come in
+        private final ConcurrentNavigableMap<LocalDate, AtomicInteger> next = new ConcurrentSkipListMap<>();
+
+        @Override
+        public List<String> order(Date date, Collection<String> available, int max) {
+            if (available.isEmpty()) {
+                return new ArrayList<>();
+            }
+            List<String> caregivers = available instanceof List ? (List<String>) available : new ArrayList<>(available);
+            AtomicInteger position = next.get(date.toLocalDate());
+            if (position == null) {
+                next.headMap(LocalDate.now()).clear();
+                position = next.computeIfAbsent(date.toLocalDate(), d -> new AtomicInteger());
+            }
+            int start = Math.floorMod(position.getAndIncrement(), caregivers.size());
+            int count = Math.min(max, caregivers.size());
+            List<String> rotated = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                rotated.add(caregivers.get((start + i) % caregivers.size()));
+            }
+            return rotated;
+        }
+    }
+}
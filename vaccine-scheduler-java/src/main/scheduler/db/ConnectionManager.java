@@ -1,41 +1,370 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections shared by the whole application.
+ *
+ * Callers borrow a connection with {@link #borrowConnection()} and must hand it back with
+ * {@link #returnConnection(Connection)} (usually in a finally block) instead of closing it.
+ * Idle connections are validated before they are handed out and closed once they have been
+ * idle for longer than the configured timeout.
+ *
+ * Connections are {@link InstrumentedConnection instrumented} and get a {@link StatementCache}
+ * when they are opened, and the pool statistics are exposed over JMX as
+ * scheduler:type=ConnectionPool.
+ */
+public class ConnectionManager implements ConnectionPoolMXBean {
+
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
 
-public class ConnectionManager {
+    // pool settings, read from the environment like the connection settings below
+    private static final int DEFAULT_MAX_POOL_SIZE = 10;
+    private static final int DEFAULT_MAX_WAIT_MILLIS = 5000;
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private static ConnectionManager instance = null;
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
     private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
     private final String userName = System.getenv("UserID");
     private final String userPass = System.getenv("Password");
 
-    private Connection con = null;
+    private final int maxPoolSize = Util.envInt("PoolMaxSize", DEFAULT_MAX_POOL_SIZE);
+    private final long maxWaitMillis = Util.envInt("PoolMaxWaitMillis", DEFAULT_MAX_WAIT_MILLIS);
+    private final long idleTimeoutMillis = Util.envInt("PoolIdleTimeoutMillis", DEFAULT_IDLE_TIMEOUT_MILLIS);
+    private final int statementCacheSize = Util.envInt("StatementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE);
+
+    // most recently returned connections are at the head, the longest idle at the tail
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    // one permit per borrowed connection; new connections are only opened when no idle one is left,
+    // so idle plus borrowed connections never exceed the pool size
+    private final Semaphore permits = new Semaphore(maxPoolSize, true);
+    private final ScheduledExecutorService evictor;
+    private volatile boolean shutdown = false;
+    // connection bound to a worker thread by pinConnection()
+    private final ThreadLocal<Connection> pinned = new ThreadLocal<>();
 
-    public ConnectionManager() {
+    // pool statistics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private ConnectionManager() {
         try {
             Class.forName(driverName);
         } catch (ClassNotFoundException e) {
             System.out.println(e.toString());
         }
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        evictor.scheduleAtFixedRate(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+        Metrics.register(this, "scheduler:type=ConnectionPool");
+    }
+
+    public static synchronized ConnectionManager getInstance() {
+        if (instance == null) {
+            instance = new ConnectionManager();
+        }
+        return instance;
     }
 
-    public Connection createConnection() {
+    /**
+     * Borrows a connection from the pool, opening a new one if no idle connection is available.
+     * Blocks for at most the configured max wait when the pool is exhausted.
+     */
+    public Connection borrowConnection() throws SQLException {
+        Connection pinnedCon = pinned.get();
+        if (pinnedCon != null) {
+            if (!pinnedCon.isClosed()) {
+                borrowCount.incrementAndGet();
+                return pinnedCon;
+            }
+            // the pinned connection died; pin a fresh one in its place
+            pinned.remove();
+            permits.release();
+            Connection con = borrowConnection();
+            pinned.set(con);
+            return con;
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            Connection con = takeValidIdleConnection();
+            if (con == null) {
+                con = InstrumentedConnection.wrap(StatementCache.wrap(
+                        DriverManager.getConnection(connectionUrl, userName, userPass), statementCacheSize));
+                createdCount.incrementAndGet();
+            }
+            borrowCount.incrementAndGet();
+            long waited = System.nanoTime() - start;
+            totalWaitNanos.addAndGet(waited);
+            Metrics.recordConnectionWait(waited);
+            return con;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. Any open transaction is rolled back and
+     * auto-commit is restored so the next borrower gets a clean connection.
+     */
+    public void returnConnection(Connection con) {
+        if (con == null) {
+            return;
+        }
+        if (con == pinned.get()) {
+            // stays with the thread, but must not carry an open transaction into the next command
+            try {
+                if (!con.isClosed() && !con.getAutoCommit()) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        try {
+            if (con.isClosed()) {
+                permits.release();
+                return;
+            }
+            if (shutdown) {
+                closeQuietly(con);
+                permits.release();
+                return;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            closeQuietly(con);
+            permits.release();
+            return;
+        }
+        synchronized (idle) {
+            idle.addFirst(new IdleConnection(con, System.currentTimeMillis()));
+        }
+        permits.release();
+    }
+
+    /**
+     * Binds a pooled connection to the calling thread, so that every borrow on this thread returns
+     * the same connection until {@link #unpinConnection()} hands it back to the pool. Used by
+     * long-running workers to avoid going through the pool for every command; code running on a
+     * pinned thread must return a connection before borrowing the next one.
+     */
+    public void pinConnection() throws SQLException {
+        if (pinned.get() == null) {
+            pinned.set(borrowConnection());
+        }
+    }
+
+    public void unpinConnection() {
+        Connection con = pinned.get();
+        if (con != null) {
+            pinned.remove();
+            returnConnection(con);
+        }
+    }
+
+    @Override
+    public PoolStats getStats() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        long borrows = borrowCount.get();
+        return new PoolStats(maxPoolSize, maxPoolSize - permits.availablePermits(), idleCount, borrows,
+                createdCount.get(), evictedCount.get(), validationFailureCount.get(), timeoutCount.get(),
+                borrows == 0 ? 0 : totalWaitNanos.get() / borrows / 1000);
+    }
+
+    @Override
+    public StatementCache.StatementCacheStats getStatementCacheStats() {
+        return StatementCache.getStats();
+    }
+
+    /**
+     * Closes all idle connections and stops the evictor. Borrowed connections are closed as
+     * they are returned.
+     */
+    public void shutdown() {
+        shutdown = true;
+        evictor.shutdownNow();
+        synchronized (idle) {
+            for (IdleConnection ic : idle) {
+                closeQuietly(ic.connection);
+            }
+            idle.clear();
         }
-        return con;
     }
 
-    public void closeConnection() {
+    private Connection takeValidIdleConnection() {
+        while (true) {
+            IdleConnection ic;
+            synchronized (idle) {
+                ic = idle.pollFirst();
+            }
+            if (ic == null) {
+                return null;
+            }
+            try {
+                if (ic.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return ic.connection;
+                }
+            } catch (SQLException e) {
+                // treat as invalid
+            }
+            validationFailureCount.incrementAndGet();
+            closeQuietly(ic.connection);
+        }
+    }
+
+    private void evictIdleConnections() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        synchronized (idle) {
+            Iterator<IdleConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                IdleConnection ic = it.next();
+                if (ic.idleSince > cutoff) {
+                    break;
+                }
+                it.remove();
+                closeQuietly(ic.connection);
+                evictedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection con) {
         try {
-            this.con.close();
+            con.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long idleSince;
+
+        private IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+
+    public static class PoolStats {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final long borrows;
+        private final long created;
+        private final long evicted;
+        private final long validationFailures;
+        private final long timeouts;
+        private final long averageWaitMicros;
+
+        private PoolStats(int maxSize, int active, int idle, long borrows, long created, long evicted,
+                          long validationFailures, long timeouts, long averageWaitMicros) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.borrows = borrows;
+            this.created = created;
+            this.evicted = evicted;
+            this.validationFailures = validationFailures;
+            this.timeouts = timeouts;
+            this.averageWaitMicros = averageWaitMicros;
+        }
+
+        // Getters
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getEvicted() {
+            return evicted;
+        }
+
+        public long getValidationFailures() {
+            return validationFailures;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getAverageWaitMicros() {
+            return averageWaitMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStats{" +
+                    "maxSize=" + maxSize +
+                    ", active=" + active +
+                    ", idle=" + idle +
+                    ", borrows=" + borrows +
+                    ", created=" + created +
+                    ", evicted=" + evicted +
+                    ", validationFailures=" + validationFailures +
+                    ", timeouts=" + timeouts +
+                    ", averageWaitMicros=" + averageWaitMicros +
+                    '}';
+        }
+    }
 }
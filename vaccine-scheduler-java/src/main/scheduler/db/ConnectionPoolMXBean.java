@@ -0,0 +1,10 @@
+package scheduler.db;
+
+/**
+ * JMX view of the {@link ConnectionManager} pool.
+ */
+public interface ConnectionPoolMXBean {
+    ConnectionManager.PoolStats getStats();
+
+    StatementCache.StatementCacheStats getStatementCacheStats();
+}
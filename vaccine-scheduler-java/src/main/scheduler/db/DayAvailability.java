@@ -0,0 +1,36 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * The number of caregivers available on one day, and their usernames if they were asked for.
+ */
+public class DayAvailability {
+    private final Date date;
+    private final int caregiverCount;
+    private final List<String> caregivers;
+
+    public DayAvailability(Date date, int caregiverCount, List<String> caregivers) {
+        this.date = date;
+        this.caregiverCount = caregiverCount;
+        this.caregivers = caregivers;
+    }
+
+    // Getters
+    public Date getDate() {
+        return date;
+    }
+
+    public int getCaregiverCount() {
+        return caregiverCount;
+    }
+
+    /**
+     * Returns the usernames of the available caregivers ordered by username, or an empty list if
+     * they were not asked for.
+     */
+    public List<String> getCaregivers() {
+        return caregivers;
+    }
+}
@@ -0,0 +1,219 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out doses of hot vaccines from memory, so that concurrent reservations for the same vaccine
+ * do not all update its Vaccines row.
+ *
+ * A lease moves up to a block of doses out of the Vaccines table with one conditional update, and
+ * reservations then take doses from the block. Leased doses are gone from the table until
+ * {@link #flush()} gives the unused ones back, so a dose is never handed out twice, not even by
+ * different instances; the cost is that the stock in the table looks lower while leases are held.
+ *
+ * Unused doses are given back every DoseLeaseFlushSeconds and on {@link #close()}. Vaccine names
+ * compare case-insensitively, like the database.
+ *
+ * Leases are only held in memory. If the process dies without closing them (a crash, a kill or a
+ * lost connection during the final flush), the doses it held stay missing from the Vaccines table:
+ * up to DoseLeaseSize doses per leased vaccine and instance, only ever too few, never too many.
+ * Nothing reconciles them at startup; after a crash, compare the table with the physical stock
+ * and restore the difference with add_doses.
+ */
+public class DoseLeases {
+
+    public static final int DEFAULT_LEASE_SIZE = 20;
+    public static final int DEFAULT_FLUSH_SECONDS = 5;
+
+    /**
+     * Moves doses between the Vaccines table and the leases.
+     */
+    public interface Source {
+        /**
+         * Takes up to {@code max} doses of the vaccine out of storage and returns how many were
+         * taken, 0 if there are none left.
+         */
+        int lease(String vaccineName, int max) throws SQLException;
+
+        /**
+         * Adds the given doses back to storage in one batch.
+         */
+        void giveBack(Map<String, Integer> doses) throws SQLException;
+    }
+
+    private final Source source;
+    private final int leaseSize;
+    // null means every vaccine is leased
+    private final Set<String> vaccines;
+    // doses held per vaccine, keyed by lower-case name
+    private final Map<String, AtomicInteger> held = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Leases doses of the given vaccines, or of every vaccine if {@code vaccines} is null, and
+     * gives unused ones back every {@code flushSeconds} (0 only on close).
+     */
+    public DoseLeases(Source source, int leaseSize, Set<String> vaccines, int flushSeconds) {
+        if (leaseSize <= 0) {
+            throw new IllegalArgumentException("Lease size must be positive!");
+        }
+        this.source = source;
+        this.leaseSize = leaseSize;
+        if (vaccines == null) {
+            this.vaccines = null;
+        } else {
+            this.vaccines = new TreeSet<>();
+            for (String vaccine : vaccines) {
+                this.vaccines.add(key(vaccine));
+            }
+        }
+        if (flushSeconds > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dose-lease-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Creates dose leases from the DoseLeaseVaccines (a comma-separated list of vaccine names, or
+     * "*" for all), DoseLeaseSize and DoseLeaseFlushSeconds environment variables. Returns null if
+     * DoseLeaseVaccines is not set, in which case every dose is taken from the table directly.
+     */
+    public static DoseLeases configured(Source source) {
+        String names = System.getenv("DoseLeaseVaccines");
+        if (names == null || names.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> vaccines = null;
+        if (!names.trim().equals("*")) {
+            vaccines = new TreeSet<>();
+            for (String name : names.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    vaccines.add(name.trim());
+                }
+            }
+        }
+        return new DoseLeases(source, Util.envInt("DoseLeaseSize", DEFAULT_LEASE_SIZE), vaccines,
+                Util.envInt("DoseLeaseFlushSeconds", DEFAULT_FLUSH_SECONDS));
+    }
+
+    public boolean isLeased(String vaccineName) {
+        return vaccines == null || vaccines.contains(key(vaccineName));
+    }
+
+    /**
+     * Takes one dose, leasing a new block from storage when none are held. Returns false if
+     * storage has no doses left either.
+     */
+    public boolean take(String vaccineName) throws SQLException {
+        AtomicInteger doses = held.computeIfAbsent(key(vaccineName), k -> new AtomicInteger());
+        while (true) {
+            if (takeHeld(doses)) {
+                return true;
+            }
+            synchronized (doses) {
+                // another thread may have leased a block while this one waited
+                if (doses.get() > 0) {
+                    continue;
+                }
+                int leased = source.lease(vaccineName, leaseSize);
+                if (leased == 0) {
+                    return false;
+                }
+                doses.addAndGet(leased - 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts back a dose that was taken for a reservation that did not go through.
+     */
+    public void giveBack(String vaccineName) {
+        held.computeIfAbsent(key(vaccineName), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * Returns the number of doses of the vaccine held in memory.
+     */
+    public int held(String vaccineName) {
+        AtomicInteger doses = held.get(key(vaccineName));
+        return doses == null ? 0 : doses.get();
+    }
+
+    /**
+     * Gives all unused doses back to storage. If that fails they stay leased.
+     */
+    public void flush() throws SQLException {
+        Map<String, Integer> unused = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, AtomicInteger> entry : held.entrySet()) {
+            int doses = entry.getValue().getAndSet(0);
+            if (doses > 0) {
+                unused.put(entry.getKey(), doses);
+            }
+        }
+        if (unused.isEmpty()) {
+            return;
+        }
+        try {
+            source.giveBack(unused);
+        } catch (SQLException | RuntimeException e) {
+            for (Map.Entry<String, Integer> entry : unused.entrySet()) {
+                held.get(entry.getKey()).addAndGet(entry.getValue());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the periodic flush and gives all unused doses back.
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when giving back leased doses");
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean takeHeld(AtomicInteger doses) {
+        while (true) {
+            int current = doses.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (doses.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static String key(String vaccineName) {
+        return vaccineName.toLowerCase(Locale.ROOT);
+    }
+}
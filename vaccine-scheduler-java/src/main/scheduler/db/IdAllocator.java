@@ -0,0 +1,70 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out unique IDs from blocks leased from a shared counter (a hi/lo scheme). Only leasing a
+ * new block touches the database; every other call is answered from memory, and because each
+ * block belongs to a single allocator, concurrent instances never produce the same ID.
+ *
+ * IDs that were leased but not used (e.g. on shutdown or after a failed reservation) are skipped,
+ * so the sequence can have gaps.
+ */
+public class IdAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    /**
+     * Atomically reserves a range of IDs from the shared counter.
+     */
+    public interface BlockSource {
+        /**
+         * Reserves {@code blockSize} consecutive IDs and returns the first one.
+         */
+        int leaseBlock(String name, int blockSize) throws SQLException;
+    }
+
+    private final String name;
+    private final int blockSize;
+    private final BlockSource source;
+
+    // next ID to hand out and the first ID beyond the current block
+    private int next = 0;
+    private int limit = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public IdAllocator(String name, int blockSize, BlockSource source) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.name = name;
+        this.blockSize = blockSize;
+        this.source = source;
+    }
+
+    public int nextId() throws SQLException {
+        // a lock rather than a monitor, as leasing a block blocks on JDBC and server requests run on
+        // virtual threads, which a monitor would pin to their carrier
+        lock.lock();
+        try {
+            if (next >= limit) {
+                int start = source.leaseBlock(name, blockSize);
+                next = start;
+                limit = start + blockSize;
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the block size from the IdBlockSize environment variable.
+     */
+    public static int configuredBlockSize() {
+        return Util.envInt("IdBlockSize", DEFAULT_BLOCK_SIZE);
+    }
+}
@@ -0,0 +1,49 @@
+package scheduler.db;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A group of users and vaccine doses imported together in one transaction by
+ * {@link Storage#importBatch(ImportBatch)}.
+ */
+public class ImportBatch {
+    private final List<Caregiver> caregivers = new ArrayList<>();
+    private final List<Patient> patients = new ArrayList<>();
+    // doses to add per vaccine, summed over all rows for the same vaccine
+    private final Map<String, Integer> doses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public void addCaregiver(Caregiver caregiver) {
+        caregivers.add(caregiver);
+    }
+
+    public void addPatient(Patient patient) {
+        patients.add(patient);
+    }
+
+    public void addDoses(String vaccineName, int num) {
+        doses.merge(vaccineName, num, Integer::sum);
+    }
+
+    // Getters
+    public List<Caregiver> getCaregivers() {
+        return caregivers;
+    }
+
+    public List<Patient> getPatients() {
+        return patients;
+    }
+
+    public Map<String, Integer> getDoses() {
+        return doses;
+    }
+
+    public boolean isEmpty() {
+        return caregivers.isEmpty() && patients.isEmpty() && doses.isEmpty();
+    }
+}
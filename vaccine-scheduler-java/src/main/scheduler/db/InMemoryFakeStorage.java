@@ -0,0 +1,734 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory fake of the SQL Server storage, for running the application, the tools and the
+ * benchmarks without a database. Nothing survives a restart.
+ *
+ * It is not a SQL engine: none of the SQL of {@link SqlServerStorage}, {@link ReservationEngine},
+ * resources/create.sql or the migrations runs here. Every operation is reimplemented on Java
+ * collections, and create.sql is only read to check that it still defines the tables faked here.
+ * The fake mirrors the behaviour of the schema (primary and foreign keys are enforced, usernames
+ * and vaccine names compare case-insensitively like the database's default collation) so that the
+ * application's logic can be tested against it, but changes to the queries have to be tried
+ * against SQL Server. Writes are serialized by a single lock while reads run concurrently.
+ *
+ * Of the statements of the {@link SchemaMigrations} up to the given version, the indexes on
+ * Appointments by Patient or by Caregiver are kept as sorted per-user sets, so that listing a
+ * user's appointments does not scan all of them; the other statements are ignored.
+ */
+public class InMemoryFakeStorage implements Storage {
+
+    public static final String SCHEMA_RESOURCE = "/resources/create.sql";
+
+    private static final Pattern CREATE_TABLE = Pattern.compile("CREATE\\s+TABLE\\s+(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+    // the table and the first key column of an index
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "CREATE\\s+(?:UNIQUE\\s+)?(?:NONCLUSTERED\\s+)?INDEX\\s+\\w+\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Comparator<Appointment> BY_TIME_AND_ID =
+            Comparator.comparing(Appointment::getTime).thenComparingInt(Appointment::getId);
+    private static final Set<String> REQUIRED_TABLES = new HashSet<>(Arrays.asList(
+            "caregivers", "availabilities", "vaccines", "patients", "appointments", "idblocks"));
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // the tables from create.sql, keyed by their primary keys
+    private final Map<String, Caregiver> caregivers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Patient> patients = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Integer> vaccines = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final NavigableMap<LocalDate, NavigableSet<String>> availabilities = new TreeMap<>();
+    // Availabilities.Slots: the free slots of the caregivers above who published slots; the others
+    // are available the whole day
+    private final Map<LocalDate, Map<String, Long>> freeSlots = new TreeMap<>();
+    private final NavigableMap<Integer, Appointment> appointments = new TreeMap<>();
+    private final Map<String, Integer> idBlocks = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // secondary indexes on Appointments, in (Time, ID) order per user; null until a migration creates them
+    private Map<String, NavigableSet<Appointment>> appointmentsByPatient = null;
+    private Map<String, NavigableSet<Appointment>> appointmentsByCaregiver = null;
+
+    private final IdAllocator appointmentIds = new IdAllocator("Appointments",
+            IdAllocator.configuredBlockSize(), this::leaseIdBlock);
+    private final CaregiverSelector selector = CaregiverSelector.configured();
+    private final SlotSchedule schedule = SlotSchedule.configured();
+
+    public InMemoryFakeStorage() {
+        this(SCHEMA_RESOURCE, SchemaMigrations.configuredVersion());
+    }
+
+    public InMemoryFakeStorage(String schemaResource) {
+        this(schemaResource, SchemaMigrations.configuredVersion());
+    }
+
+    public InMemoryFakeStorage(String schemaResource, int schemaVersion) {
+        Set<String> tables = loadSchema(schemaResource);
+        for (String table : REQUIRED_TABLES) {
+            if (!tables.contains(table)) {
+                throw new IllegalStateException("Schema " + schemaResource + " does not define table " + table);
+            }
+        }
+        for (SchemaMigrations.Migration migration : SchemaMigrations.between(0, schemaVersion)) {
+            for (String statement : migration.getStatements()) {
+                Matcher m = CREATE_INDEX.matcher(statement);
+                if (m.find() && m.group(1).equalsIgnoreCase("appointments")) {
+                    if (m.group(2).equalsIgnoreCase("patient")) {
+                        appointmentsByPatient = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                    } else if (m.group(2).equalsIgnoreCase("caregiver")) {
+                        appointmentsByCaregiver = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean caregiverExists(String username) {
+        lock.readLock().lock();
+        try {
+            return caregivers.containsKey(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveCaregiver(Caregiver caregiver) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (caregivers.containsKey(caregiver.getUsername())) {
+                throw primaryKeyViolation("Caregivers", caregiver.getUsername());
+            }
+            caregivers.put(caregiver.getUsername(), caregiver);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) {
+        lock.readLock().lock();
+        try {
+            return caregivers.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAvailability(String caregiverUsername, Date date) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (!caregivers.containsKey(caregiverUsername)) {
+                throw foreignKeyViolation("Availabilities", "Caregivers", caregiverUsername);
+            }
+            NavigableSet<String> available = availabilities.computeIfAbsent(date.toLocalDate(),
+                    d -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER));
+            if (!available.add(caregiverUsername)) {
+                throw primaryKeyViolation("Availabilities", date + ", " + caregiverUsername);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int addAvailabilities(String caregiverUsername, List<Date> dates) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (!caregivers.containsKey(caregiverUsername)) {
+                throw foreignKeyViolation("Availabilities", "Caregivers", caregiverUsername);
+            }
+            int inserted = 0;
+            for (Date date : dates) {
+                if (availabilities.computeIfAbsent(date.toLocalDate(),
+                        d -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(caregiverUsername)) {
+                    inserted++;
+                }
+            }
+            return inserted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAvailabilitySlots(String caregiverUsername, Date date, long slots) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (!caregivers.containsKey(caregiverUsername)) {
+                throw foreignKeyViolation("Availabilities", "Caregivers", caregiverUsername);
+            }
+            NavigableSet<String> available = availabilities.computeIfAbsent(date.toLocalDate(),
+                    d -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER));
+            Map<String, Long> daySlots = freeSlots.computeIfAbsent(date.toLocalDate(),
+                    d -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+            if (available.add(caregiverUsername)) {
+                daySlots.put(caregiverUsername, slots);
+            } else if (daySlots.containsKey(caregiverUsername)) {
+                daySlots.merge(caregiverUsername, slots, (a, b) -> a | b);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean patientExists(String username) {
+        lock.readLock().lock();
+        try {
+            return patients.containsKey(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void savePatient(Patient patient) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (patients.containsKey(patient.getUsername())) {
+                throw primaryKeyViolation("Patients", patient.getUsername());
+            }
+            patients.put(patient.getUsername(), patient);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Patient getPatient(String username) {
+        lock.readLock().lock();
+        try {
+            return patients.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        lock.readLock().lock();
+        try {
+            Integer doses = vaccines.get(vaccineName);
+            return doses == null ? null : new Vaccine.VaccineBuilder(vaccineName, doses).build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveVaccine(Vaccine vaccine) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (vaccines.containsKey(vaccine.getVaccineName())) {
+                throw primaryKeyViolation("Vaccines", vaccine.getVaccineName());
+            }
+            vaccines.put(vaccine.getVaccineName(), vaccine.getAvailableDoses());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int addVaccineDoses(String vaccineName, int num) {
+        lock.writeLock().lock();
+        try {
+            return vaccines.merge(vaccineName, num, Integer::sum);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int takeVaccineDoses(String vaccineName, int num) {
+        lock.writeLock().lock();
+        try {
+            Integer doses = vaccines.get(vaccineName);
+            if (doses == null || doses < num) {
+                return -1;
+            }
+            vaccines.put(vaccineName, doses - num);
+            return doses - num;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Vaccine> listVaccines() throws SQLException {
+        lock.readLock().lock();
+        try {
+            List<Vaccine> result = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : vaccines.entrySet()) {
+                result.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue()).build());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> findAvailableCaregivers(Date date) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<String> available = availabilities.get(date.toLocalDate());
+            return available == null ? new ArrayList<>() : new ArrayList<>(available);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> findAvailableSlots(Date date) {
+        lock.readLock().lock();
+        try {
+            Map<String, Long> result = new LinkedHashMap<>();
+            NavigableSet<String> available = availabilities.get(date.toLocalDate());
+            if (available != null) {
+                for (String caregiver : available) {
+                    result.put(caregiver, slotsOf(date, caregiver));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public AvailabilitySummary searchAvailability(Date from, Date to, int maxDays, boolean withCaregivers)
+            throws SQLException {
+        lock.readLock().lock();
+        try {
+            List<DayAvailability> days = new ArrayList<>();
+            for (Map.Entry<LocalDate, NavigableSet<String>> entry
+                    : availabilities.subMap(from.toLocalDate(), true, to.toLocalDate(), true).entrySet()) {
+                if (days.size() == maxDays) {
+                    break;
+                }
+                days.add(new DayAvailability(Date.valueOf(entry.getKey()), entry.getValue().size(),
+                        withCaregivers ? new ArrayList<>(entry.getValue()) : new ArrayList<>()));
+            }
+            return new AvailabilitySummary(days, listVaccines());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Date, List<String>> getAvailabilities() {
+        lock.readLock().lock();
+        try {
+            Map<Date, List<String>> result = new LinkedHashMap<>();
+            for (Map.Entry<LocalDate, NavigableSet<String>> entry : availabilities.entrySet()) {
+                result.put(Date.valueOf(entry.getKey()), new ArrayList<>(entry.getValue()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> countCaregiverAppointments(Date from) {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Appointment appointment : appointments.values()) {
+                if (!appointment.getTime().before(from)) {
+                    counts.merge(appointment.getCaregiverUsername(), 1, Integer::sum);
+                }
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Appointment reserve(Date date, String vaccineName, String patientUsername)
+            throws SQLException, ReservationException {
+        return reserve(date, vaccineName, patientUsername, null);
+    }
+
+    /**
+     * Books the given caregiver, or the one the {@link CaregiverSelector} picks if {@code caregiverUsername} is null.
+     */
+    @Override
+    public Appointment reserve(Date date, String vaccineName, String patientUsername, String caregiverUsername)
+            throws SQLException, ReservationException {
+        // allocated outside the table lock, which leasing a new block needs itself
+        int appointmentId = appointmentIds.nextId();
+        lock.writeLock().lock();
+        try {
+            if (!patients.containsKey(patientUsername)) {
+                throw foreignKeyViolation("Appointments", "Patients", patientUsername);
+            }
+            Integer doses = vaccines.get(vaccineName);
+            if (doses == null || doses <= 0) {
+                throw new ReservationException(ReservationException.Reason.NOT_ENOUGH_DOSES);
+            }
+            NavigableSet<String> available = availabilities.get(date.toLocalDate());
+            if (available == null || available.isEmpty()) {
+                throw new ReservationException(ReservationException.Reason.NO_CAREGIVER_AVAILABLE);
+            }
+
+            Time startTime = null;
+            if (schedule.isEnabled()) {
+                if (caregiverUsername == null) {
+                    caregiverUsername = earliestSlotCaregiver(date, available);
+                } else if (!available.contains(caregiverUsername)) {
+                    throw new ReservationException(ReservationException.Reason.NO_CAREGIVER_AVAILABLE);
+                }
+                // the earliest slot, the lowest bit, is claimed; the caregiver stays available until none are left
+                long free = slotsOf(date, caregiverUsername);
+                long rest = free & (free - 1);
+                startTime = Time.valueOf(schedule.startOf(Long.numberOfTrailingZeros(free)));
+                if (rest != 0) {
+                    freeSlots.computeIfAbsent(date.toLocalDate(), d -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER))
+                            .put(caregiverUsername, rest);
+                } else {
+                    removeAvailability(date, caregiverUsername);
+                }
+            } else {
+                if (caregiverUsername == null) {
+                    // every caregiver in the set is free, so the first choice is always booked
+                    caregiverUsername = selector.order(date, available, 1).get(0);
+                }
+                if (!available.contains(caregiverUsername)) {
+                    throw new ReservationException(ReservationException.Reason.NO_CAREGIVER_AVAILABLE);
+                }
+                removeAvailability(date, caregiverUsername);
+            }
+            selector.booking(caregiverUsername);
+            vaccines.put(vaccineName, doses - 1);
+            Appointment appointment = new Appointment.AppointmentBuilder(appointmentId, date, vaccineName,
+                    caregiverUsername, patientUsername).startTime(startTime).build();
+            appointments.put(appointmentId, appointment);
+            index(appointmentsByPatient, patientUsername, appointment);
+            index(appointmentsByCaregiver, caregiverUsername, appointment);
+            return appointment;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Appointment cancelPatientAppointment(int appointmentId, String patientUsername) {
+        return cancel(appointmentId, patientUsername, Appointment::getPatientUsername);
+    }
+
+    @Override
+    public Appointment cancelCaregiverAppointment(int appointmentId, String caregiverUsername) {
+        return cancel(appointmentId, caregiverUsername, Appointment::getCaregiverUsername);
+    }
+
+    private Appointment cancel(int appointmentId, String username, Function<Appointment, String> owner) {
+        lock.writeLock().lock();
+        try {
+            Appointment appointment = appointments.get(appointmentId);
+            if (appointment == null || !owner.apply(appointment).equalsIgnoreCase(username)) {
+                return null;
+            }
+            appointments.remove(appointmentId);
+            unindex(appointmentsByPatient, appointment.getPatientUsername(), appointment);
+            unindex(appointmentsByCaregiver, appointment.getCaregiverUsername(), appointment);
+            restoreAvailability(appointment);
+            vaccines.merge(appointment.getVaccineName(), 1, Integer::sum);
+            selector.released(appointment.getCaregiverUsername());
+            return appointment;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the helpers below expect the caller to hold the write lock (slotsOf: at least the read lock)
+
+    /**
+     * Returns the caregiver's free slots on the date, every slot if available the whole day.
+     */
+    private long slotsOf(Date date, String caregiverUsername) {
+        Map<String, Long> daySlots = freeSlots.get(date.toLocalDate());
+        Long slots = daySlots == null ? null : daySlots.get(caregiverUsername);
+        return slots == null ? schedule.allSlots() : slots;
+    }
+
+    /**
+     * Returns the caregiver with the earliest free slot on the date; ties go to the first by username.
+     */
+    private String earliestSlotCaregiver(Date date, NavigableSet<String> available) {
+        String earliest = null;
+        int earliestSlot = Integer.MAX_VALUE;
+        for (String caregiver : available) {
+            int slot = Long.numberOfTrailingZeros(slotsOf(date, caregiver));
+            if (slot < earliestSlot) {
+                earliest = caregiver;
+                earliestSlot = slot;
+            }
+        }
+        return earliest;
+    }
+
+    private void removeAvailability(Date date, String caregiverUsername) {
+        NavigableSet<String> available = availabilities.get(date.toLocalDate());
+        available.remove(caregiverUsername);
+        if (available.isEmpty()) {
+            availabilities.remove(date.toLocalDate());
+        }
+        Map<String, Long> daySlots = freeSlots.get(date.toLocalDate());
+        if (daySlots != null) {
+            daySlots.remove(caregiverUsername);
+            if (daySlots.isEmpty()) {
+                freeSlots.remove(date.toLocalDate());
+            }
+        }
+    }
+
+    /**
+     * Gives the cancelled appointment's day, or its slot, back to the caregiver.
+     */
+    private void restoreAvailability(Appointment appointment) {
+        LocalDate day = appointment.getTime().toLocalDate();
+        String caregiver = appointment.getCaregiverUsername();
+        NavigableSet<String> available = availabilities.computeIfAbsent(day,
+                d -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER));
+        int slot = appointment.getStartTime() == null || !schedule.isEnabled() ? -1
+                : schedule.slotOf(appointment.getStartTime().toLocalTime());
+        if (slot < 0) {
+            available.add(caregiver);
+            return;
+        }
+        Map<String, Long> daySlots = freeSlots.computeIfAbsent(day, d -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+        if (available.add(caregiver)) {
+            daySlots.put(caregiver, 1L << slot);
+        } else if (daySlots.containsKey(caregiver)) {
+            daySlots.merge(caregiver, 1L << slot, (a, b) -> a | b);
+        }
+    }
+
+    @Override
+    public int streamPatientAppointments(String patientUsername, AppointmentQuery query,
+                                         Consumer<Appointment> consumer) {
+        return streamAppointments(patientUsername, Appointment::getPatientUsername, appointmentsByPatient, query,
+                consumer);
+    }
+
+    @Override
+    public int streamCaregiverAppointments(String caregiverUsername, AppointmentQuery query,
+                                           Consumer<Appointment> consumer) {
+        return streamAppointments(caregiverUsername, Appointment::getCaregiverUsername, appointmentsByCaregiver,
+                query, consumer);
+    }
+
+    private int streamAppointments(String username, Function<Appointment, String> owner,
+                                   Map<String, NavigableSet<Appointment>> index, AppointmentQuery query,
+                                   Consumer<Appointment> consumer) {
+        // the page is collected first, so the lock is not held while the consumer runs
+        List<Appointment> page = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (index != null) {
+                // seek to the cursor or the start of the range, whichever is later, and stop at the limit
+                NavigableSet<Appointment> userAppointments = index.get(username);
+                if (userAppointments != null) {
+                    NavigableSet<Appointment> tail = query.getFrom().after(query.getAfterTime())
+                            ? userAppointments.tailSet(probe(query.getFrom(), Integer.MIN_VALUE), true)
+                            : userAppointments.tailSet(probe(query.getAfterTime(), query.getAfterId()), false);
+                    for (Appointment appointment : tail) {
+                        if (appointment.getTime().after(query.getTo()) || page.size() == query.getLimit()) {
+                            break;
+                        }
+                        page.add(appointment);
+                    }
+                }
+            } else {
+                // appointments are kept in ID order, so they are all scanned and sorted by time
+                for (Appointment appointment : appointments.values()) {
+                    if (owner.apply(appointment).equalsIgnoreCase(username)
+                            && query.matches(appointment.getTime(), appointment.getId())) {
+                        page.add(appointment);
+                    }
+                }
+                page.sort(BY_TIME_AND_ID);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int count = Math.min(page.size(), query.getLimit());
+        for (int i = 0; i < count; i++) {
+            consumer.accept(page.get(i));
+        }
+        return count;
+    }
+
+    @Override
+    public List<Appointment> getPatientAppointments(String patientUsername) {
+        lock.readLock().lock();
+        try {
+            List<Appointment> result = new ArrayList<>();
+            for (Appointment appointment : appointments.values()) {
+                if (appointment.getPatientUsername().equalsIgnoreCase(patientUsername)) {
+                    result.add(appointment);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Appointment> getCaregiverAppointments(String caregiverUsername) {
+        lock.readLock().lock();
+        try {
+            List<Appointment> result = new ArrayList<>();
+            for (Appointment appointment : appointments.values()) {
+                if (appointment.getCaregiverUsername().equalsIgnoreCase(caregiverUsername)) {
+                    result.add(appointment);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> importBatch(ImportBatch batch) {
+        lock.writeLock().lock();
+        try {
+            List<String> skipped = new ArrayList<>();
+            for (Caregiver caregiver : batch.getCaregivers()) {
+                if (caregivers.putIfAbsent(caregiver.getUsername(), caregiver) != null) {
+                    skipped.add(caregiver.getUsername());
+                }
+            }
+            for (Patient patient : batch.getPatients()) {
+                if (patients.putIfAbsent(patient.getUsername(), patient) != null) {
+                    skipped.add(patient.getUsername());
+                }
+            }
+            for (Map.Entry<String, Integer> entry : batch.getDoses().entrySet()) {
+                vaccines.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            return skipped;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void pinConnection() {
+        // no connections to pin
+    }
+
+    @Override
+    public void unpinConnection() {
+        // no connections to pin
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private static void index(Map<String, NavigableSet<Appointment>> index, String username, Appointment appointment) {
+        if (index != null) {
+            index.computeIfAbsent(username, u -> new TreeSet<>(BY_TIME_AND_ID)).add(appointment);
+        }
+    }
+
+    private static void unindex(Map<String, NavigableSet<Appointment>> index, String username,
+                                Appointment appointment) {
+        if (index != null && index.containsKey(username)) {
+            index.get(username).remove(appointment);
+        }
+    }
+
+    /**
+     * Returns an appointment that sorts at the given (Time, ID) position, for seeking in an index.
+     */
+    private static Appointment probe(Date time, int id) {
+        return new Appointment.AppointmentBuilder(id, time, null, null, null).build();
+    }
+
+    private int leaseIdBlock(String table, int blockSize) {
+        lock.writeLock().lock();
+        try {
+            int start = idBlocks.getOrDefault(table, 1);
+            idBlocks.put(table, start + blockSize);
+            return start;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the schema script and returns the (lower-case) names of the tables it creates.
+     */
+    private static Set<String> loadSchema(String schemaResource) {
+        InputStream in = InMemoryFakeStorage.class.getResourceAsStream(schemaResource);
+        if (in == null) {
+            throw new IllegalStateException("Schema " + schemaResource + " not found on the classpath");
+        }
+        Set<String> tables = new HashSet<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                Matcher m = CREATE_TABLE.matcher(line);
+                if (m.find()) {
+                    tables.add(m.group(1).toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read schema " + schemaResource, e);
+        }
+        return tables;
+    }
+
+    private static SQLException primaryKeyViolation(String table, String key) {
+        return new SQLIntegrityConstraintViolationException(
+                "Violation of PRIMARY KEY constraint on " + table + ": duplicate key (" + key + ")");
+    }
+
+    private static SQLException foreignKeyViolation(String table, String referencedTable, String key) {
+        return new SQLIntegrityConstraintViolationException(
+                "FOREIGN KEY constraint on " + table + ": no row in " + referencedTable + " for (" + key + ")");
+    }
+}
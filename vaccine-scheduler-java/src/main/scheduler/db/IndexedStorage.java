@@ -0,0 +1,360 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Storage decorator that answers availability lookups from an in-memory {@link AvailabilityIndex}.
+ *
+ * The index is loaded when the storage is created, updated by uploads and reservations made
+ * through this instance, and reloaded from the underlying storage periodically so that changes
+ * made by other instances show up. Because the index can be stale, reservations still claim the
+ * slot in the underlying storage: a caregiver taken elsewhere is dropped from the index and the
+ * next one is tried, and the underlying storage picks the caregiver itself when the index has
+ * nothing left for the date. The {@link CaregiverSelector} decides the order candidates are tried in.
+ * Changes this instance makes while a reload is reading the underlying storage are recorded and
+ * replayed onto the reloaded index, as the snapshot being read may or may not include them.
+ *
+ * The index only knows whether a caregiver is available on a date, not in which {@link SlotSchedule}
+ * slots, so it is not used when days are divided into slots.
+ */
+public class IndexedStorage implements Storage {
+
+    public static final int DEFAULT_RESYNC_SECONDS = 30;
+
+    // candidates from the index to try before letting the underlying storage choose
+    private static final int MAX_INDEXED_CANDIDATES = 3;
+
+    private final Storage delegate;
+    private final AvailabilityIndex index;
+    private final CaregiverSelector selector;
+    private final ScheduledExecutorService resync;
+    // false until the index has been loaded once; lookups go to the underlying storage until then
+    private volatile boolean loaded = false;
+    // guards index changes against a reload swapping the index under them
+    private final Object indexLock = new Object();
+    // changes made to the index since the running reload started, null when none is running
+    private List<Change> journal = null;
+    // one reload at a time; a lock rather than a monitor, as reloading blocks on the database
+    private final ReentrantLock resyncLock = new ReentrantLock();
+
+    public IndexedStorage(Storage delegate, int resyncSeconds) {
+        this(delegate, new AvailabilityIndex(), resyncSeconds, new CaregiverSelector.FirstAvailable());
+    }
+
+    public IndexedStorage(Storage delegate, AvailabilityIndex index, int resyncSeconds, CaregiverSelector selector) {
+        this.delegate = delegate;
+        this.index = index;
+        this.selector = selector;
+        try {
+            selector.seed(delegate);
+        } catch (SQLException e) {
+            System.out.println("Error occurred when counting caregiver appointments");
+            e.printStackTrace();
+        }
+        resync();
+        if (resyncSeconds > 0) {
+            resync = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "availability-index-resync");
+                t.setDaemon(true);
+                return t;
+            });
+            resync.scheduleWithFixedDelay(this::resync, resyncSeconds, resyncSeconds, TimeUnit.SECONDS);
+        } else {
+            resync = null;
+        }
+    }
+
+    /**
+     * Reloads the index from the underlying storage.
+     */
+    public void resync() {
+        resyncLock.lock();
+        try {
+            synchronized (indexLock) {
+                journal = new ArrayList<>();
+            }
+            Map<Date, List<String>> snapshot = delegate.getAvailabilities();
+            synchronized (indexLock) {
+                index.load(snapshot);
+                for (Change change : journal) {
+                    change.applyTo(index);
+                }
+            }
+            loaded = true;
+        } catch (SQLException e) {
+            System.out.println("Error occurred when reloading availabilities");
+            e.printStackTrace();
+        } finally {
+            synchronized (indexLock) {
+                journal = null;
+            }
+            resyncLock.unlock();
+        }
+    }
+
+    private void indexAdd(Date date, String caregiverUsername) {
+        apply(new Change(date, caregiverUsername, true));
+    }
+
+    private void indexRemove(Date date, String caregiverUsername) {
+        apply(new Change(date, caregiverUsername, false));
+    }
+
+    private void apply(Change change) {
+        synchronized (indexLock) {
+            change.applyTo(index);
+            if (journal != null) {
+                journal.add(change);
+            }
+        }
+    }
+
+    @Override
+    public void addAvailability(String caregiverUsername, Date date) throws SQLException {
+        delegate.addAvailability(caregiverUsername, date);
+        indexAdd(date, caregiverUsername);
+    }
+
+    @Override
+    public int addAvailabilities(String caregiverUsername, List<Date> dates) throws SQLException {
+        int inserted = delegate.addAvailabilities(caregiverUsername, dates);
+        for (Date date : dates) {
+            indexAdd(date, caregiverUsername);
+        }
+        return inserted;
+    }
+
+    @Override
+    public void addAvailabilitySlots(String caregiverUsername, Date date, long slots) throws SQLException {
+        delegate.addAvailabilitySlots(caregiverUsername, date, slots);
+        indexAdd(date, caregiverUsername);
+    }
+
+    @Override
+    public List<String> findAvailableCaregivers(Date date) throws SQLException {
+        if (!loaded) {
+            return delegate.findAvailableCaregivers(date);
+        }
+        return index.caregivers(date);
+    }
+
+    @Override
+    public AvailabilitySummary searchAvailability(Date from, Date to, int maxDays, boolean withCaregivers)
+            throws SQLException {
+        if (!loaded) {
+            return delegate.searchAvailability(from, to, maxDays, withCaregivers);
+        }
+        return new AvailabilitySummary(index.days(from, to, maxDays, withCaregivers), delegate.listVaccines());
+    }
+
+    @Override
+    public Map<String, Long> findAvailableSlots(Date date) throws SQLException {
+        return delegate.findAvailableSlots(date);
+    }
+
+    @Override
+    public Map<Date, List<String>> getAvailabilities() throws SQLException {
+        return delegate.getAvailabilities();
+    }
+
+    @Override
+    public Map<String, Integer> countCaregiverAppointments(Date from) throws SQLException {
+        return delegate.countCaregiverAppointments(from);
+    }
+
+    @Override
+    public Appointment reserve(Date date, String vaccineName, String patientUsername)
+            throws SQLException, ReservationException {
+        for (String caregiverUsername : selector.order(date, index.caregivers(date), MAX_INDEXED_CANDIDATES)) {
+            try {
+                return reserve(date, vaccineName, patientUsername, caregiverUsername);
+            } catch (ReservationException e) {
+                if (e.getReason() != ReservationException.Reason.NO_CAREGIVER_AVAILABLE) {
+                    throw e;
+                }
+            }
+        }
+        // the index may be missing slots added by other instances
+        Appointment appointment = delegate.reserve(date, vaccineName, patientUsername);
+        indexRemove(date, appointment.getCaregiverUsername());
+        selector.booking(appointment.getCaregiverUsername());
+        return appointment;
+    }
+
+    @Override
+    public Appointment reserve(Date date, String vaccineName, String patientUsername, String caregiverUsername)
+            throws SQLException, ReservationException {
+        // counted before the attempt, so that concurrent reservations see the caregiver as busier
+        selector.booking(caregiverUsername);
+        boolean booked = false;
+        try {
+            Appointment appointment = delegate.reserve(date, vaccineName, patientUsername, caregiverUsername);
+            indexRemove(date, caregiverUsername);
+            booked = true;
+            return appointment;
+        } catch (ReservationException e) {
+            if (e.getReason() == ReservationException.Reason.NO_CAREGIVER_AVAILABLE) {
+                // taken by another instance
+                indexRemove(date, caregiverUsername);
+            }
+            throw e;
+        } finally {
+            if (!booked) {
+                selector.released(caregiverUsername);
+            }
+        }
+    }
+
+    @Override
+    public Appointment cancelPatientAppointment(int appointmentId, String patientUsername) throws SQLException {
+        return restoreSlot(delegate.cancelPatientAppointment(appointmentId, patientUsername));
+    }
+
+    @Override
+    public Appointment cancelCaregiverAppointment(int appointmentId, String caregiverUsername) throws SQLException {
+        return restoreSlot(delegate.cancelCaregiverAppointment(appointmentId, caregiverUsername));
+    }
+
+    private Appointment restoreSlot(Appointment cancelled) {
+        if (cancelled != null) {
+            indexAdd(cancelled.getTime(), cancelled.getCaregiverUsername());
+            selector.released(cancelled.getCaregiverUsername());
+        }
+        return cancelled;
+    }
+
+    @Override
+    public int streamPatientAppointments(String patientUsername, AppointmentQuery query,
+                                         Consumer<Appointment> consumer) throws SQLException {
+        return delegate.streamPatientAppointments(patientUsername, query, consumer);
+    }
+
+    @Override
+    public int streamCaregiverAppointments(String caregiverUsername, AppointmentQuery query,
+                                           Consumer<Appointment> consumer) throws SQLException {
+        return delegate.streamCaregiverAppointments(caregiverUsername, query, consumer);
+    }
+
+    @Override
+    public void pinConnection() throws SQLException {
+        delegate.pinConnection();
+    }
+
+    @Override
+    public void unpinConnection() {
+        delegate.unpinConnection();
+    }
+
+    @Override
+    public void close() {
+        if (resync != null) {
+            resync.shutdownNow();
+        }
+        delegate.close();
+    }
+
+    // Everything else goes straight to the underlying storage
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return delegate.caregiverExists(username);
+    }
+
+    @Override
+    public void saveCaregiver(Caregiver caregiver) throws SQLException {
+        delegate.saveCaregiver(caregiver);
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        return delegate.getCaregiver(username);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return delegate.patientExists(username);
+    }
+
+    @Override
+    public void savePatient(Patient patient) throws SQLException {
+        delegate.savePatient(patient);
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        return delegate.getPatient(username);
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        return delegate.getVaccine(vaccineName);
+    }
+
+    @Override
+    public void saveVaccine(Vaccine vaccine) throws SQLException {
+        delegate.saveVaccine(vaccine);
+    }
+
+    @Override
+    public int addVaccineDoses(String vaccineName, int num) throws SQLException {
+        return delegate.addVaccineDoses(vaccineName, num);
+    }
+
+    @Override
+    public int takeVaccineDoses(String vaccineName, int num) throws SQLException {
+        return delegate.takeVaccineDoses(vaccineName, num);
+    }
+
+    @Override
+    public List<Vaccine> listVaccines() throws SQLException {
+        return delegate.listVaccines();
+    }
+
+    @Override
+    public List<Appointment> getPatientAppointments(String patientUsername) throws SQLException {
+        return delegate.getPatientAppointments(patientUsername);
+    }
+
+    @Override
+    public List<Appointment> getCaregiverAppointments(String caregiverUsername) throws SQLException {
+        return delegate.getCaregiverAppointments(caregiverUsername);
+    }
+
+    @Override
+    public List<String> importBatch(ImportBatch batch) throws SQLException {
+        return delegate.importBatch(batch);
+    }
+
+    private static class Change {
+        private final Date date;
+        private final String caregiverUsername;
+        private final boolean available;
+
+        private Change(Date date, String caregiverUsername, boolean available) {
+            this.date = date;
+            this.caregiverUsername = caregiverUsername;
+            this.available = available;
+        }
+
+        private void applyTo(AvailabilityIndex index) {
+            if (available) {
+                index.add(date, caregiverUsername);
+            } else {
+                index.remove(date, caregiverUsername);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Wraps a JDBC connection so that every statement execution is timed and every commit and
+ * rollback is counted in {@link Metrics}. The pool wraps each connection once, when it is opened.
+ *
+ * A rollback is only counted if statements ran since the last commit or rollback, so the pool
+ * resetting an already committed connection does not show up as one.
+ */
+class InstrumentedConnection implements InvocationHandler {
+
+    private final Connection delegate;
+    // true while statements have run that were not committed or rolled back yet
+    private boolean dirty = false;
+
+    private InstrumentedConnection(Connection delegate) {
+        this.delegate = delegate;
+    }
+
+    static Connection wrap(Connection con) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new InstrumentedConnection(con));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        Object result;
+        try {
+            result = method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            if (name.equals("commit") || name.equals("rollback")) {
+                Metrics.recordFailure();
+            }
+            throw e.getCause();
+        }
+        if (name.equals("commit")) {
+            Metrics.recordCommit();
+            dirty = false;
+        } else if (name.equals("rollback") && (args == null || args.length == 0)) {
+            if (dirty) {
+                Metrics.recordRollback();
+            }
+            dirty = false;
+        } else if (name.equals("prepareStatement") && result instanceof PreparedStatement) {
+            PreparedStatement statement = (PreparedStatement) result;
+            return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, new StatementHandler(statement));
+        } else if (name.equals("setAutoCommit")) {
+            // a new transaction starts
+            dirty = false;
+        }
+        return result;
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final PreparedStatement delegate;
+
+        private StatementHandler(PreparedStatement delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                try {
+                    return method.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = method.invoke(delegate, args);
+                failed = false;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                dirty = true;
+                Metrics.recordStatement(name, System.nanoTime() - start, failed);
+            }
+        }
+    }
+}
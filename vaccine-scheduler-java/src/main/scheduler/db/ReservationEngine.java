@@ -0,0 +1,337 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+
+/**
+ * Books appointments on SQL Server without letting two concurrent reservations take the same
+ * caregiver slot or the last dose.
+ *
+ * Instead of reading the availability and dose count and then writing them back, each step
+ * claims what it needs with a single conditional statement inside one transaction:
+ * <ol>
+ *     <li>the requested caregiver's slot, or else the first free caregiver on the date, is deleted
+ *     from Availabilities. When picking the first free caregiver, rows already locked by other
+ *     reservations are skipped (READPAST) so they take the next caregiver instead of queueing
+ *     behind each other,</li>
+ *     <li>a dose is taken with {@code Doses = Doses - 1 WHERE Doses > 0},</li>
+ *     <li>the appointment is inserted.</li>
+ * </ol>
+ * If any step finds nothing to claim the transaction is rolled back. Deadlocks and lock timeouts
+ * are retried a bounded number of times.
+ *
+ * For vaccines handed out through {@link DoseLeases}, the dose is taken from a lease before the
+ * transaction instead of in step 2, and given back to the lease if the reservation fails.
+ *
+ * Cancelling undoes all three steps in one transaction that is sent as a single batch: the
+ * appointment is deleted, and only if it existed is the caregiver's slot restored and the dose
+ * returned to Vaccines. Cancelling the same appointment twice therefore changes nothing the
+ * second time.
+ *
+ * When days are divided into {@link SlotSchedule slots}, step 1 instead claims the earliest free
+ * slot: the row with the lowest bit set in Slots loses that bit in a single UPDATE (a NULL Slots,
+ * a caregiver available the whole day, counting as every slot), and the row is deleted once no
+ * slot is left. Cancelling sets the appointment's bit again.
+ */
+public class ReservationEngine {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    // SQL Server error numbers for transient lock conflicts
+    private static final int DEADLOCK_VICTIM_ERROR = 1205;
+    private static final int LOCK_TIMEOUT_ERROR = 1222;
+    private static final long RETRY_BACKOFF_MILLIS = 10;
+
+    private static final String CLAIM_SLOT =
+            "WITH slot AS (" +
+            "SELECT TOP (1) Username FROM Availabilities WITH (ROWLOCK, UPDLOCK, READPAST) " +
+            "WHERE Time = ? ORDER BY Username ASC) " +
+            "DELETE FROM slot OUTPUT deleted.Username";
+    private static final String CLAIM_CAREGIVER_SLOT =
+            "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    // ISNULL(Slots, ?) is bound to every slot of the day; x & -x is the lowest bit of x, x & (x - 1)
+    // clears it
+    private static final String CLAIM_EARLIEST_SLOT =
+            "WITH slot AS (" +
+            "SELECT TOP (1) Username, Slots FROM Availabilities WITH (ROWLOCK, UPDLOCK, READPAST) " +
+            "WHERE Time = ? AND (Slots IS NULL OR Slots <> 0) " +
+            "ORDER BY ISNULL(Slots, ?) & -ISNULL(Slots, ?) ASC, Username ASC) " +
+            "UPDATE slot SET Slots = ISNULL(Slots, ?) & (ISNULL(Slots, ?) - 1) " +
+            "OUTPUT inserted.Username, ISNULL(deleted.Slots, ?) & -ISNULL(deleted.Slots, ?) AS Slot";
+    private static final String CLAIM_CAREGIVER_EARLIEST_SLOT =
+            "UPDATE Availabilities SET Slots = ISNULL(Slots, ?) & (ISNULL(Slots, ?) - 1) " +
+            "OUTPUT ISNULL(deleted.Slots, ?) & -ISNULL(deleted.Slots, ?) AS Slot " +
+            "WHERE Time = ? AND Username = ? AND (Slots IS NULL OR Slots <> 0)";
+    private static final String DELETE_FULLY_BOOKED =
+            "DELETE FROM Availabilities WHERE Time = ? AND Username = ? AND Slots = 0";
+    private static final String TAKE_DOSE =
+            "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+    private static final String INSERT_APPOINTMENT =
+            "INSERT INTO Appointments (ID, Time, Vaccine, Caregiver, Patient) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_APPOINTMENT_IN_SLOT =
+            "INSERT INTO Appointments (ID, Time, Vaccine, Caregiver, Patient, StartTime) VALUES (?, ?, ?, ?, ?, ?)";
+    // the deleted appointment is kept in a table variable and returned after the commit; a
+    // caregiver who published the slot again in the meantime keeps the existing row
+    private static final String CANCEL =
+            "DECLARE @cancelled TABLE (ID int, Time date, Vaccine varchar(255), Caregiver varchar(255), " +
+            "Patient varchar(255)%2$s); " +
+            "BEGIN TRY " +
+            "BEGIN TRANSACTION; " +
+            "DELETE FROM Appointments " +
+            "OUTPUT deleted.ID, deleted.Time, deleted.Vaccine, deleted.Caregiver, deleted.Patient%3$s " +
+            "INTO @cancelled WHERE ID = ? AND %1$s = ?; " +
+            "%4$s " +
+            "UPDATE v SET Doses = v.Doses + 1 FROM Vaccines v JOIN @cancelled c ON v.Name = c.Vaccine; " +
+            "COMMIT TRANSACTION; " +
+            "END TRY " +
+            "BEGIN CATCH " +
+            "IF @@TRANCOUNT > 0 ROLLBACK TRANSACTION; " +
+            "THROW; " +
+            "END CATCH; " +
+            "SELECT ID, Time, Vaccine, Caregiver, Patient%5$s FROM @cancelled;";
+    private static final String RESTORE_DAY =
+            "INSERT INTO Availabilities (Time, Username) SELECT c.Time, c.Caregiver FROM @cancelled c " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities a WITH (UPDLOCK, HOLDLOCK) " +
+            "WHERE a.Time = c.Time AND a.Username = c.Caregiver);";
+    // the slot's bit is computed from the start time with the day start and slot length bound; a
+    // whole-day appointment (no StartTime) restores the whole day as above
+    private static final String RESTORE_SLOT =
+            "MERGE Availabilities WITH (HOLDLOCK) AS a " +
+            "USING (SELECT Time, Caregiver, " +
+            "CASE WHEN StartTime IS NULL THEN NULL " +
+            "ELSE POWER(CAST(2 AS bigint), DATEDIFF(minute, CAST(? AS time), StartTime) / ?) END AS Slot " +
+            "FROM @cancelled) AS c " +
+            "ON a.Time = c.Time AND a.Username = c.Caregiver " +
+            "WHEN MATCHED AND c.Slot IS NOT NULL THEN UPDATE SET Slots = a.Slots | c.Slot " +
+            "WHEN NOT MATCHED THEN INSERT (Time, Username, Slots) VALUES (c.Time, c.Caregiver, c.Slot);";
+
+    private final ConnectionManager cm;
+    private final IdAllocator appointmentIds;
+    // null if every dose is taken from the Vaccines table
+    private final DoseLeases doseLeases;
+    private final SlotSchedule schedule;
+    private final int maxAttempts;
+    private final String cancelPatientAppointment;
+    private final String cancelCaregiverAppointment;
+
+    public ReservationEngine(ConnectionManager cm, IdAllocator appointmentIds, DoseLeases doseLeases,
+                             SlotSchedule schedule, int maxAttempts) {
+        this.cm = cm;
+        this.appointmentIds = appointmentIds;
+        this.doseLeases = doseLeases;
+        this.schedule = schedule;
+        this.maxAttempts = maxAttempts;
+        this.cancelPatientAppointment = cancelBatch("Patient", schedule.isEnabled());
+        this.cancelCaregiverAppointment = cancelBatch("Caregiver", schedule.isEnabled());
+    }
+
+    private static String cancelBatch(String ownerColumn, boolean slots) {
+        if (slots) {
+            return String.format(CANCEL, ownerColumn, ", StartTime time(0)", ", deleted.StartTime", RESTORE_SLOT,
+                    ", StartTime");
+        }
+        return String.format(CANCEL, ownerColumn, "", "", RESTORE_DAY, "");
+    }
+
+    /**
+     * Books the first available caregiver on the date, or the given caregiver if
+     * {@code caregiverUsername} is not null. With slots, books the earliest free slot of any
+     * caregiver, or of the given one.
+     */
+    public Appointment reserve(Date date, String vaccineName, String patientUsername, String caregiverUsername)
+            throws SQLException, ReservationException {
+        // allocated before borrowing so that leasing a new block never waits on a second connection
+        int appointmentId = appointmentIds.nextId();
+        // likewise, leasing doses borrows its own connection
+        boolean leasedDose = doseLeases != null && doseLeases.isLeased(vaccineName);
+        if (leasedDose && !doseLeases.take(vaccineName)) {
+            throw new ReservationException(ReservationException.Reason.NOT_ENOUGH_DOSES);
+        }
+        boolean booked = false;
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    Appointment appointment = tryReserve(appointmentId, date, vaccineName, patientUsername,
+                            caregiverUsername, !leasedDose);
+                    booked = true;
+                    return appointment;
+                } catch (SQLException e) {
+                    if (attempt >= maxAttempts || !isTransient(e)) {
+                        throw e;
+                    }
+                    backOff(attempt);
+                }
+            }
+        } finally {
+            if (leasedDose && !booked) {
+                doseLeases.giveBack(vaccineName);
+            }
+        }
+    }
+
+    /**
+     * Cancels the appointment if it belongs to the given patient, or to the given caregiver if
+     * {@code patientUsername} is null. Returns the cancelled appointment, or null if there is no
+     * such appointment (e.g. because it was cancelled already).
+     */
+    public Appointment cancel(int appointmentId, String patientUsername, String caregiverUsername)
+            throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (patientUsername != null) {
+                    return tryCancel(cancelPatientAppointment, appointmentId, patientUsername);
+                }
+                return tryCancel(cancelCaregiverAppointment, appointmentId, caregiverUsername);
+            } catch (SQLException e) {
+                if (attempt >= maxAttempts || !isTransient(e)) {
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+    }
+
+    private Appointment tryCancel(String cancel, int appointmentId, String username) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement cancelStmt = con.prepareStatement(cancel)) {
+            cancelStmt.setInt(1, appointmentId);
+            cancelStmt.setString(2, username);
+            if (schedule.isEnabled()) {
+                cancelStmt.setString(3, schedule.getDayStart().toString());
+                cancelStmt.setInt(4, schedule.getSlotMinutes());
+            }
+            // skip the update counts of the batch up to the final SELECT
+            boolean isResultSet = cancelStmt.execute();
+            while (!isResultSet && cancelStmt.getUpdateCount() != -1) {
+                isResultSet = cancelStmt.getMoreResults();
+            }
+            if (!isResultSet) {
+                throw new SQLException("Cancelling returned no result");
+            }
+            ResultSet cancelled = cancelStmt.getResultSet();
+            if (!cancelled.next()) {
+                return null;
+            }
+            return new Appointment.AppointmentBuilder(cancelled.getInt("ID"), cancelled.getDate("Time"),
+                    cancelled.getString("Vaccine"), cancelled.getString("Caregiver"),
+                    cancelled.getString("Patient"))
+                    .startTime(schedule.isEnabled() ? cancelled.getTime("StartTime") : null)
+                    .build();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private Appointment tryReserve(int appointmentId, Date date, String vaccineName, String patientUsername,
+                                   String requestedCaregiver, boolean takeDose)
+            throws SQLException, ReservationException {
+        Connection con = cm.borrowConnection();
+
+        try {
+            con.setAutoCommit(false);
+
+            String caregiverUsername;
+            Time startTime = null;
+            if (schedule.isEnabled()) {
+                long slot;
+                try (PreparedStatement claimSlotStmt = con.prepareStatement(requestedCaregiver == null
+                        ? CLAIM_EARLIEST_SLOT : CLAIM_CAREGIVER_EARLIEST_SLOT)) {
+                    if (requestedCaregiver == null) {
+                        claimSlotStmt.setDate(1, date);
+                        for (int i = 2; i <= 7; i++) {
+                            claimSlotStmt.setLong(i, schedule.allSlots());
+                        }
+                    } else {
+                        for (int i = 1; i <= 4; i++) {
+                            claimSlotStmt.setLong(i, schedule.allSlots());
+                        }
+                        claimSlotStmt.setDate(5, date);
+                        claimSlotStmt.setString(6, requestedCaregiver);
+                    }
+                    ResultSet claimed = claimSlotStmt.executeQuery();
+                    if (!claimed.next()) {
+                        throw new ReservationException(ReservationException.Reason.NO_CAREGIVER_AVAILABLE);
+                    }
+                    caregiverUsername = requestedCaregiver == null ? claimed.getString("Username")
+                            : requestedCaregiver;
+                    // the bit of the slot claimed
+                    slot = claimed.getLong("Slot");
+                }
+                try (PreparedStatement deleteStmt = con.prepareStatement(DELETE_FULLY_BOOKED)) {
+                    deleteStmt.setDate(1, date);
+                    deleteStmt.setString(2, caregiverUsername);
+                    deleteStmt.executeUpdate();
+                }
+                startTime = Time.valueOf(schedule.startOf(Long.numberOfTrailingZeros(slot)));
+            } else if (requestedCaregiver == null) {
+                try (PreparedStatement claimSlotStmt = con.prepareStatement(CLAIM_SLOT)) {
+                    claimSlotStmt.setDate(1, date);
+                    ResultSet claimed = claimSlotStmt.executeQuery();
+                    if (!claimed.next()) {
+                        throw new ReservationException(ReservationException.Reason.NO_CAREGIVER_AVAILABLE);
+                    }
+                    caregiverUsername = claimed.getString("Username");
+                }
+            } else {
+                try (PreparedStatement claimSlotStmt = con.prepareStatement(CLAIM_CAREGIVER_SLOT)) {
+                    claimSlotStmt.setDate(1, date);
+                    claimSlotStmt.setString(2, requestedCaregiver);
+                    if (claimSlotStmt.executeUpdate() == 0) {
+                        throw new ReservationException(ReservationException.Reason.NO_CAREGIVER_AVAILABLE);
+                    }
+                }
+                caregiverUsername = requestedCaregiver;
+            }
+
+            if (takeDose) {
+                try (PreparedStatement takeDoseStmt = con.prepareStatement(TAKE_DOSE)) {
+                    takeDoseStmt.setString(1, vaccineName);
+                    if (takeDoseStmt.executeUpdate() == 0) {
+                        throw new ReservationException(ReservationException.Reason.NOT_ENOUGH_DOSES);
+                    }
+                }
+            }
+
+            try (PreparedStatement appointmentStmt = con.prepareStatement(startTime == null ? INSERT_APPOINTMENT
+                    : INSERT_APPOINTMENT_IN_SLOT)) {
+                appointmentStmt.setInt(1, appointmentId);
+                appointmentStmt.setDate(2, date);
+                appointmentStmt.setString(3, vaccineName);
+                appointmentStmt.setString(4, caregiverUsername);
+                appointmentStmt.setString(5, patientUsername);
+                if (startTime != null) {
+                    appointmentStmt.setTime(6, startTime);
+                }
+                appointmentStmt.executeUpdate();
+            }
+
+            con.commit();
+            return new Appointment.AppointmentBuilder(appointmentId, date, vaccineName, caregiverUsername,
+                    patientUsername).startTime(startTime).build();
+        } finally {
+            // rolls back anything left uncommitted
+            cm.returnConnection(con);
+        }
+    }
+
+    private static boolean isTransient(SQLException e) {
+        return e.getErrorCode() == DEADLOCK_VICTIM_ERROR || e.getErrorCode() == LOCK_TIMEOUT_ERROR
+                || "40001".equals(e.getSQLState());
+    }
+
+    private static void backOff(int attempt) throws SQLException {
+        try {
+            Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying reservation", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package scheduler.db;
+
+/**
+ * Thrown when a reservation cannot be made for a reason the patient can act on, as opposed to
+ * a database failure.
+ */
+public class ReservationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        NOT_ENOUGH_DOSES,
+        NO_CAREGIVER_AVAILABLE
+    }
+
+    private final Reason reason;
+
+    public ReservationException(Reason reason) {
+        super(reason.toString());
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,188 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned changes to the schema of resources/create.sql, applied in order when the storage
+ * starts. Each migration is a script under resources/migrations whose statements end with a
+ * semicolon at the end of a line.
+ *
+ * On SQL Server the applied versions are recorded in the SchemaVersion table, which the first run
+ * creates. Pending migrations are applied in one transaction under an application lock, so
+ * instances starting at the same time apply each migration once. The in-memory fake reads the
+ * same migrations every time it is created, but only mirrors their Appointments indexes.
+ *
+ * The SchemaVersion environment variable sets the version to migrate to (default: the latest;
+ * 0 keeps the schema as created), e.g. to measure the queries before and after a migration.
+ *
+ * Availabilities needs no index of its own: lookups by Time ordered by Username are served by its
+ * clustered primary key (Time, Username).
+ */
+public class SchemaMigrations {
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Index appointments by patient", "/resources/migrations/V1__appointments_by_patient.sql"),
+            new Migration(2, "Index appointments by caregiver",
+                    "/resources/migrations/V2__appointments_by_caregiver.sql"),
+            new Migration(3, "Add time slots", "/resources/migrations/V3__availability_slots.sql"),
+            new Migration(4, "Store hash iterations", "/resources/migrations/V4__hash_iterations.sql"));
+
+    private static final String LOCK =
+            "DECLARE @result int; " +
+            "EXEC @result = sp_getapplock @Resource = 'SchemaMigrations', @LockMode = 'Exclusive', " +
+            "@LockOwner = 'Transaction', @LockTimeout = 60000; " +
+            "IF @result < 0 THROW 50000, 'Timed out waiting for the schema migration lock', 1;";
+    private static final String CREATE_VERSION_TABLE =
+            "IF OBJECT_ID('SchemaVersion') IS NULL " +
+            "CREATE TABLE SchemaVersion (Version int PRIMARY KEY, Description varchar(255), " +
+            "AppliedAt datetime2 DEFAULT SYSUTCDATETIME())";
+    private static final String CURRENT_VERSION = "SELECT ISNULL(MAX(Version), 0) AS Version FROM SchemaVersion";
+    private static final String RECORD_VERSION = "INSERT INTO SchemaVersion (Version, Description) VALUES (?, ?)";
+
+    private SchemaMigrations() {
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+    }
+
+    /**
+     * Reads the version to migrate to from the SchemaVersion environment variable.
+     */
+    public static int configuredVersion() {
+        return Util.envInt("SchemaVersion", latestVersion());
+    }
+
+    /**
+     * Returns the migrations after {@code fromVersion} up to and including {@code toVersion}, in order.
+     */
+    public static List<Migration> between(int fromVersion, int toVersion) {
+        List<Migration> migrations = new ArrayList<>();
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() > fromVersion && migration.getVersion() <= toVersion) {
+                migrations.add(migration);
+            }
+        }
+        return migrations;
+    }
+
+    /**
+     * Applies the migrations the database has not had yet, up to {@code targetVersion}. Returns the
+     * number applied.
+     */
+    static int migrate(ConnectionManager cm, int targetVersion) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement lockStmt = con.prepareStatement(LOCK)) {
+                lockStmt.execute();
+            }
+            try (PreparedStatement createStmt = con.prepareStatement(CREATE_VERSION_TABLE)) {
+                createStmt.execute();
+            }
+            int current;
+            try (PreparedStatement versionStmt = con.prepareStatement(CURRENT_VERSION)) {
+                ResultSet resultSet = versionStmt.executeQuery();
+                resultSet.next();
+                current = resultSet.getInt("Version");
+            }
+            List<Migration> pending = between(current, targetVersion);
+            for (Migration migration : pending) {
+                for (String statement : migration.getStatements()) {
+                    try (PreparedStatement migrationStmt = con.prepareStatement(statement)) {
+                        migrationStmt.execute();
+                    }
+                }
+                try (PreparedStatement recordStmt = con.prepareStatement(RECORD_VERSION)) {
+                    recordStmt.setInt(1, migration.getVersion());
+                    recordStmt.setString(2, migration.getDescription());
+                    recordStmt.executeUpdate();
+                }
+            }
+            con.commit();
+            for (Migration migration : pending) {
+                System.out.println("Applied schema migration " + migration.getVersion() + ": " +
+                        migration.getDescription());
+            }
+            return pending.size();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final String resource;
+
+        private Migration(int version, String description, String resource) {
+            this.version = version;
+            this.description = description;
+            this.resource = resource;
+        }
+
+        // Getters
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Reads the migration's statements from its script, without comments.
+         */
+        public List<String> getStatements() {
+            InputStream in = SchemaMigrations.class.getResourceAsStream(resource);
+            if (in == null) {
+                throw new IllegalStateException("Migration " + resource + " not found on the classpath");
+            }
+            List<String> statements = new ArrayList<>();
+            StringBuilder statement = new StringBuilder();
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    String trimmed = line.trim();
+                    if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                        continue;
+                    }
+                    if (trimmed.endsWith(";")) {
+                        statement.append(trimmed, 0, trimmed.length() - 1);
+                        statements.add(statement.toString());
+                        statement.setLength(0);
+                    } else {
+                        statement.append(trimmed).append(' ');
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read migration " + resource, e);
+            }
+            if (statement.length() > 0) {
+                statements.add(statement.toString().trim());
+            }
+            return statements;
+        }
+
+        @Override
+        public String toString() {
+            return "Migration{" +
+                    "version=" + version +
+                    ", description='" + description + '\'' +
+                    '}';
+        }
+    }
+}
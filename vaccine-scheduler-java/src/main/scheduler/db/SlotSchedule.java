@@ -0,0 +1,133 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Divides each day into time slots of equal length, so that a caregiver can take many appointments
+ * a day instead of one.
+ *
+ * A caregiver's free slots on a date are kept as a bitset in one {@code long}, bit {@code i} being
+ * the slot that starts {@code i * slotMinutes} after the day start. A reservation claims the lowest
+ * bit, which is the earliest free slot, and clears it with {@code slots & (slots - 1)}. The sign
+ * bit is never used, so a day has at most {@link #MAX_SLOTS} slots; the rest of the day after them
+ * cannot be booked.
+ *
+ * Set SlotMinutes (default 0: whole days, one appointment per caregiver a day) and SlotDayStart
+ * (default 08:00) to enable slots. Availabilities stored with one granularity are not converted
+ * when it changes, so change it only while no slots are published.
+ */
+public class SlotSchedule {
+
+    public static final int MAX_SLOTS = 63;
+    public static final LocalTime DEFAULT_DAY_START = LocalTime.of(8, 0);
+
+    private final int slotMinutes;
+    private final LocalTime dayStart;
+    private final int slotsPerDay;
+
+    public SlotSchedule(int slotMinutes, LocalTime dayStart) {
+        if (slotMinutes < 0) {
+            throw new IllegalArgumentException("Slot length must not be negative: " + slotMinutes);
+        }
+        this.slotMinutes = slotMinutes;
+        this.dayStart = dayStart;
+        long minutesLeft = ChronoUnit.MINUTES.between(dayStart, LocalTime.MAX) + 1;
+        this.slotsPerDay = slotMinutes == 0 ? 0 : (int) Math.min(MAX_SLOTS, minutesLeft / slotMinutes);
+    }
+
+    /**
+     * Reads the schedule from the SlotMinutes and SlotDayStart environment variables.
+     */
+    public static SlotSchedule configured() {
+        int slotMinutes = Util.envInt("SlotMinutes", 0);
+        LocalTime dayStart = DEFAULT_DAY_START;
+        String value = System.getenv("SlotDayStart");
+        if (value != null) {
+            try {
+                dayStart = LocalTime.parse(value.trim());
+            } catch (DateTimeParseException e) {
+                System.out.println("Ignoring invalid value for SlotDayStart: " + value);
+            }
+        }
+        if (slotMinutes < 0) {
+            System.out.println("Ignoring invalid value for SlotMinutes: " + slotMinutes);
+            slotMinutes = 0;
+        }
+        return new SlotSchedule(slotMinutes, dayStart);
+    }
+
+    /**
+     * Returns true if days are divided into slots, false if each availability is a whole day.
+     */
+    public boolean isEnabled() {
+        return slotMinutes > 0;
+    }
+
+    // Getters
+    public int getSlotMinutes() {
+        return slotMinutes;
+    }
+
+    public LocalTime getDayStart() {
+        return dayStart;
+    }
+
+    public int getSlotsPerDay() {
+        return slotsPerDay;
+    }
+
+    /**
+     * Returns every slot of the day, the slots of a caregiver available the whole day.
+     */
+    public long allSlots() {
+        return (1L << slotsPerDay) - 1;
+    }
+
+    /**
+     * Returns the slots that start at or after {@code from} and end by {@code to}.
+     */
+    public long slots(LocalTime from, LocalTime to) {
+        long slots = 0;
+        for (int slot = 0; slot < slotsPerDay; slot++) {
+            LocalTime start = startOf(slot);
+            if (!start.isBefore(from) && !start.plusMinutes(slotMinutes).isAfter(to)
+                    && !start.plusMinutes(slotMinutes).isBefore(start)) {
+                slots |= 1L << slot;
+            }
+        }
+        return slots;
+    }
+
+    public LocalTime startOf(int slot) {
+        return dayStart.plusMinutes((long) slot * slotMinutes);
+    }
+
+    /**
+     * Returns the slot starting at the given time, or -1 if no slot starts then.
+     */
+    public int slotOf(LocalTime start) {
+        long minutes = ChronoUnit.MINUTES.between(dayStart, start);
+        if (minutes < 0 || minutes % slotMinutes != 0 || minutes / slotMinutes >= slotsPerDay) {
+            return -1;
+        }
+        return (int) (minutes / slotMinutes);
+    }
+
+    /**
+     * Returns the start times of the given slots, earliest first.
+     */
+    public List<LocalTime> startTimes(long slots) {
+        List<LocalTime> times = new ArrayList<>(Long.bitCount(slots));
+        while (slots != 0) {
+            times.add(startOf(Long.numberOfTrailingZeros(slots)));
+            slots &= slots - 1;
+        }
+        return times;
+    }
+}
@@ -0,0 +1,834 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Storage backed by the SQL Server database, using pooled connections from
+ * {@link ConnectionManager}. Pending {@link SchemaMigrations} are applied when it is created.
+ *
+ * Vaccine doses only change through relative, conditional updates, so concurrent changes never
+ * overwrite each other. Doses of the vaccines configured for {@link DoseLeases} are taken from
+ * leases instead; the counts returned for those vaccines include the doses held in leases.
+ *
+ * Signup checks whether a username is taken against a {@link UsernameFilter} of each table's
+ * usernames, loaded at startup and updated on every insert, and only query the table when the
+ * filter reports a possible match. A username added by another instance since startup is missed
+ * by the filter, so saving a user relies on the primary key and reports a taken username as a
+ * {@link SQLIntegrityConstraintViolationException}. UsernameFilterCapacity sizes the filters
+ * (default 1,000,000 usernames each; 0 always queries).
+ *
+ * From schema version 4 on, users are stored with the PBKDF2 iterations of their hash. Older
+ * schemas have no place for them, so every hash must use {@link PasswordHasher#LEGACY_ITERATIONS}
+ * and the storage refuses to start with any other HashIterations.
+ */
+public class SqlServerStorage implements Storage {
+
+    public static final int DEFAULT_APPOINTMENT_FETCH_SIZE = 100;
+
+    // SQL Server error number for a PRIMARY KEY violation
+    private static final int DUPLICATE_KEY_ERROR = 2627;
+    // SQL Server error number for creating an object that already exists
+    private static final int OBJECT_EXISTS_ERROR = 2714;
+    // databases created before IdBlocks was added to create.sql do not have it yet
+    private static final String CREATE_ID_BLOCKS =
+            "IF OBJECT_ID('IdBlocks') IS NULL " +
+            "CREATE TABLE IdBlocks (Name varchar(255), NextID int, PRIMARY KEY (Name))";
+
+    // the range and cursor are always bound, with AppointmentQuery's defaults when not given, so each
+    // user column has one statement shape
+    private static final String STREAM_APPOINTMENTS =
+            "SELECT TOP (?) %s FROM Appointments " +
+            "WHERE %s = ? AND Time >= ? AND Time <= ? AND (Time > ? OR (Time = ? AND ID > ?)) " +
+            "ORDER BY Time ASC, ID ASC";
+    // both search the days and read the vaccines in a single batch
+    private static final String SEARCH_DAYS =
+            "SELECT TOP (?) Time, COUNT(*) AS Caregivers FROM Availabilities WHERE Time >= ? AND Time <= ? " +
+            "GROUP BY Time ORDER BY Time ASC; " +
+            "SELECT Name, Doses FROM Vaccines;";
+    private static final String SEARCH_DAYS_WITH_CAREGIVERS =
+            "WITH days AS (" +
+            "SELECT TOP (?) Time, COUNT(*) AS Caregivers FROM Availabilities WHERE Time >= ? AND Time <= ? " +
+            "GROUP BY Time ORDER BY Time ASC) " +
+            "SELECT d.Time, d.Caregivers, a.Username FROM days d JOIN Availabilities a ON a.Time = d.Time " +
+            "ORDER BY d.Time ASC, a.Username ASC; " +
+            "SELECT Name, Doses FROM Vaccines;";
+    // a caregiver available the whole day (Slots NULL) keeps that
+    private static final String ADD_AVAILABILITY_SLOTS =
+            "MERGE Availabilities WITH (HOLDLOCK) AS a " +
+            "USING (SELECT ? AS Time, ? AS Username, ? AS Slots) AS s " +
+            "ON a.Time = s.Time AND a.Username = s.Username " +
+            "WHEN MATCHED THEN UPDATE SET Slots = a.Slots | s.Slots " +
+            "WHEN NOT MATCHED THEN INSERT (Time, Username, Slots) VALUES (s.Time, s.Username, s.Slots);";
+    private static final String APPOINTMENT_COLUMNS = "ID, Vaccine, Time, Caregiver, Patient";
+
+    private final ConnectionManager cm = ConnectionManager.getInstance();
+    private final SlotSchedule schedule = SlotSchedule.configured();
+    // StartTime is added by schema version 3, and only read when days are divided into slots
+    private final String appointmentColumns = APPOINTMENT_COLUMNS + (schedule.isEnabled() ? ", StartTime" : "");
+    private final String streamPatientAppointments = String.format(STREAM_APPOINTMENTS, appointmentColumns,
+            "Patient");
+    private final String streamCaregiverAppointments = String.format(STREAM_APPOINTMENTS, appointmentColumns,
+            "Caregiver");
+    // rows the driver reads ahead when streaming appointments
+    private final int appointmentFetchSize = Util.envInt("AppointmentFetchSize", DEFAULT_APPOINTMENT_FETCH_SIZE);
+    // HashIterations is added by schema version 4; rows without it were hashed with the legacy count
+    private final boolean hashIterationsStored = SchemaMigrations.configuredVersion() >= 4;
+    private final String userColumns = "Username, Salt, Hash" + (hashIterationsStored ? ", HashIterations" : "");
+    private final String userValues = "?, ?, ?" + (hashIterationsStored ? ", ?" : "");
+    private final IdAllocator appointmentIds = new IdAllocator("Appointments",
+            IdAllocator.configuredBlockSize(), this::leaseIdBlock);
+    private volatile boolean idBlocksCreated = false;
+    // null unless DoseLeaseVaccines is set
+    private final DoseLeases doseLeases = DoseLeases.configured(new DoseLeases.Source() {
+        @Override
+        public int lease(String vaccineName, int max) throws SQLException {
+            return leaseDoses(vaccineName, max);
+        }
+
+        @Override
+        public void giveBack(Map<String, Integer> doses) throws SQLException {
+            giveBackDoses(doses);
+        }
+    });
+    private final ReservationEngine reservationEngine = new ReservationEngine(cm, appointmentIds, doseLeases,
+            schedule, ReservationEngine.DEFAULT_MAX_ATTEMPTS);
+    // null if disabled or not loaded, in which case every check queries the table
+    private final UsernameFilter caregiverNames;
+    private final UsernameFilter patientNames;
+
+    public SqlServerStorage() {
+        if (!hashIterationsStored && PasswordHasher.getInstance().getIterations() != PasswordHasher.LEGACY_ITERATIONS) {
+            throw new IllegalStateException("HashIterations other than " + PasswordHasher.LEGACY_ITERATIONS +
+                    " needs schema version 4");
+        }
+        try {
+            SchemaMigrations.migrate(cm, SchemaMigrations.configuredVersion());
+        } catch (SQLException e) {
+            // the application still works without the indexes, only slower
+            System.out.println("Error occurred when migrating the schema");
+            e.printStackTrace();
+        }
+        int filterCapacity = Util.envInt("UsernameFilterCapacity", UsernameFilter.DEFAULT_CAPACITY);
+        caregiverNames = loadUsernameFilter("Caregivers", filterCapacity);
+        patientNames = loadUsernameFilter("Patients", filterCapacity);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        if (caregiverNames != null && !caregiverNames.mightContain(username)) {
+            return false;
+        }
+        return usernameExists("SELECT * FROM Caregivers WHERE Username = ?", username);
+    }
+
+    @Override
+    public void saveCaregiver(Caregiver caregiver) throws SQLException {
+        String addCaregiver = "INSERT INTO Caregivers (" + userColumns + ") VALUES (" + userValues + ")";
+        saveUser(addCaregiver, caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash(),
+                caregiver.getIterations());
+        if (caregiverNames != null) {
+            caregiverNames.add(caregiver.getUsername());
+        }
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String getCaregiver = "SELECT " + userColumns + " FROM Caregivers WHERE Username = ?";
+        try (PreparedStatement statement = con.prepareStatement(getCaregiver)) {
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new Caregiver.CaregiverBuilder(username, resultSet.getBytes("Salt"),
+                        resultSet.getBytes("Hash")).iterations(readIterations(resultSet)).build();
+            }
+            return null;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public void addAvailability(String caregiverUsername, Date date) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+            statement.setDate(1, date);
+            statement.setString(2, caregiverUsername);
+            statement.executeUpdate();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public int addAvailabilities(String caregiverUsername, List<Date> dates) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        // the lock hints keep a concurrent upload from inserting the same row between check and insert
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WITH (UPDLOCK, HOLDLOCK) " +
+                "WHERE Time = ? AND Username = ?)";
+        try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+            con.setAutoCommit(false);
+            for (Date date : dates) {
+                statement.setDate(1, date);
+                statement.setString(2, caregiverUsername);
+                statement.setDate(3, date);
+                statement.setString(4, caregiverUsername);
+                statement.addBatch();
+            }
+            int inserted = 0;
+            for (int count : statement.executeBatch()) {
+                inserted += Math.max(count, 0);
+            }
+            con.commit();
+            return inserted;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public void addAvailabilitySlots(String caregiverUsername, Date date, long slots) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(ADD_AVAILABILITY_SLOTS)) {
+            statement.setDate(1, date);
+            statement.setString(2, caregiverUsername);
+            statement.setLong(3, slots);
+            statement.executeUpdate();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        if (patientNames != null && !patientNames.mightContain(username)) {
+            return false;
+        }
+        return usernameExists("SELECT * FROM Patients WHERE Username = ?", username);
+    }
+
+    @Override
+    public void savePatient(Patient patient) throws SQLException {
+        String addPatient = "INSERT INTO Patients (" + userColumns + ") VALUES (" + userValues + ")";
+        saveUser(addPatient, patient.getUsername(), patient.getSalt(), patient.getHash(), patient.getIterations());
+        if (patientNames != null) {
+            patientNames.add(patient.getUsername());
+        }
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String getPatient = "SELECT " + userColumns + " FROM Patients WHERE Username = ?";
+        try (PreparedStatement statement = con.prepareStatement(getPatient)) {
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new Patient.PatientBuilder(username, resultSet.getBytes("Salt"),
+                        resultSet.getBytes("Hash")).iterations(readIterations(resultSet)).build();
+            }
+            return null;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+        try (PreparedStatement statement = con.prepareStatement(getVaccine)) {
+            statement.setString(1, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new Vaccine.VaccineBuilder(vaccineName,
+                        resultSet.getInt("Doses") + heldDoses(vaccineName)).build();
+            }
+            return null;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public void saveVaccine(Vaccine vaccine) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String addDoses = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(addDoses)) {
+            statement.setString(1, vaccine.getVaccineName());
+            statement.setInt(2, vaccine.getAvailableDoses());
+            statement.executeUpdate();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public int addVaccineDoses(String vaccineName, int num) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String addDoses = "MERGE Vaccines WITH (HOLDLOCK) AS v " +
+                "USING (SELECT ? AS Name, ? AS Doses) AS s ON v.Name = s.Name " +
+                "WHEN MATCHED THEN UPDATE SET Doses = v.Doses + s.Doses " +
+                "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (s.Name, s.Doses) " +
+                "OUTPUT inserted.Doses;";
+        try (PreparedStatement statement = con.prepareStatement(addDoses)) {
+            statement.setString(1, vaccineName);
+            statement.setInt(2, num);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt("Doses") + heldDoses(vaccineName);
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public int takeVaccineDoses(String vaccineName, int num) throws SQLException {
+        if (doseLeases != null && doseLeases.isLeased(vaccineName)) {
+            // held doses count as available, so they have to be in the table for the check
+            doseLeases.flush();
+        }
+        Connection con = cm.borrowConnection();
+
+        String takeDoses = "UPDATE Vaccines SET Doses = Doses - ? OUTPUT inserted.Doses " +
+                "WHERE Name = ? AND Doses >= ?";
+        try (PreparedStatement statement = con.prepareStatement(takeDoses)) {
+            statement.setInt(1, num);
+            statement.setString(2, vaccineName);
+            statement.setInt(3, num);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt("Doses") : -1;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public List<Vaccine> listVaccines() throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String vaccineQuery = "SELECT Name, Doses FROM Vaccines";
+        try (PreparedStatement statement = con.prepareStatement(vaccineQuery)) {
+            ResultSet resultSet = statement.executeQuery();
+            return readVaccines(resultSet);
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public List<String> findAvailableCaregivers(Date date) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String caregiverQuery = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
+        try (PreparedStatement statement = con.prepareStatement(caregiverQuery)) {
+            statement.setDate(1, date);
+            ResultSet resultSet = statement.executeQuery();
+            List<String> caregivers = new ArrayList<>();
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString("Username"));
+            }
+            return caregivers;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public Map<String, Long> findAvailableSlots(Date date) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String slotQuery = "SELECT Username, Slots FROM Availabilities WHERE Time = ? ORDER BY Username";
+        try (PreparedStatement statement = con.prepareStatement(slotQuery)) {
+            statement.setDate(1, date);
+            ResultSet resultSet = statement.executeQuery();
+            Map<String, Long> slots = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                long free = resultSet.getLong("Slots");
+                slots.put(resultSet.getString("Username"), resultSet.wasNull() ? schedule.allSlots() : free);
+            }
+            return slots;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public AvailabilitySummary searchAvailability(Date from, Date to, int maxDays, boolean withCaregivers)
+            throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(withCaregivers ? SEARCH_DAYS_WITH_CAREGIVERS
+                : SEARCH_DAYS)) {
+            statement.setInt(1, maxDays);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+            statement.execute();
+            List<DayAvailability> days = new ArrayList<>();
+            ResultSet resultSet = statement.getResultSet();
+            if (withCaregivers) {
+                // one row per caregiver, grouped by day
+                Date day = null;
+                int count = 0;
+                List<String> caregivers = null;
+                while (resultSet.next()) {
+                    Date time = resultSet.getDate("Time");
+                    if (!time.equals(day)) {
+                        if (day != null) {
+                            days.add(new DayAvailability(day, count, caregivers));
+                        }
+                        day = time;
+                        count = resultSet.getInt("Caregivers");
+                        caregivers = new ArrayList<>(count);
+                    }
+                    caregivers.add(resultSet.getString("Username"));
+                }
+                if (day != null) {
+                    days.add(new DayAvailability(day, count, caregivers));
+                }
+            } else {
+                while (resultSet.next()) {
+                    days.add(new DayAvailability(resultSet.getDate("Time"), resultSet.getInt("Caregivers"),
+                            new ArrayList<>()));
+                }
+            }
+            if (!statement.getMoreResults()) {
+                throw new SQLException("Searching availability returned no vaccines");
+            }
+            return new AvailabilitySummary(days, readVaccines(statement.getResultSet()));
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public Map<Date, List<String>> getAvailabilities() throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String availabilityQuery = "SELECT Time, Username FROM Availabilities ORDER BY Time, Username";
+        try (PreparedStatement statement = con.prepareStatement(availabilityQuery)) {
+            ResultSet resultSet = statement.executeQuery();
+            Map<Date, List<String>> availabilities = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                availabilities.computeIfAbsent(resultSet.getDate("Time"), d -> new ArrayList<>())
+                        .add(resultSet.getString("Username"));
+            }
+            return availabilities;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public Map<String, Integer> countCaregiverAppointments(Date from) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String countQuery = "SELECT Caregiver, COUNT(*) AS Appointments FROM Appointments WHERE Time >= ? " +
+                "GROUP BY Caregiver";
+        try (PreparedStatement statement = con.prepareStatement(countQuery)) {
+            statement.setDate(1, from);
+            ResultSet resultSet = statement.executeQuery();
+            Map<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            while (resultSet.next()) {
+                counts.put(resultSet.getString("Caregiver"), resultSet.getInt("Appointments"));
+            }
+            return counts;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public Appointment reserve(Date date, String vaccineName, String patientUsername)
+            throws SQLException, ReservationException {
+        return reservationEngine.reserve(date, vaccineName, patientUsername, null);
+    }
+
+    @Override
+    public Appointment reserve(Date date, String vaccineName, String patientUsername, String caregiverUsername)
+            throws SQLException, ReservationException {
+        return reservationEngine.reserve(date, vaccineName, patientUsername, caregiverUsername);
+    }
+
+    @Override
+    public Appointment cancelPatientAppointment(int appointmentId, String patientUsername) throws SQLException {
+        return reservationEngine.cancel(appointmentId, patientUsername, null);
+    }
+
+    @Override
+    public Appointment cancelCaregiverAppointment(int appointmentId, String caregiverUsername) throws SQLException {
+        return reservationEngine.cancel(appointmentId, null, caregiverUsername);
+    }
+
+    @Override
+    public List<Appointment> getPatientAppointments(String patientUsername) throws SQLException {
+        String patientQuery =
+                "SELECT " + appointmentColumns + " FROM Appointments WHERE Patient = ? ORDER BY ID ASC";
+        return getAppointments(patientQuery, patientUsername);
+    }
+
+    @Override
+    public List<Appointment> getCaregiverAppointments(String caregiverUsername) throws SQLException {
+        String caregiverQuery =
+                "SELECT " + appointmentColumns + " FROM Appointments WHERE Caregiver = ? ORDER BY ID ASC";
+        return getAppointments(caregiverQuery, caregiverUsername);
+    }
+
+    @Override
+    public int streamPatientAppointments(String patientUsername, AppointmentQuery query,
+                                         Consumer<Appointment> consumer) throws SQLException {
+        return streamAppointments(streamPatientAppointments, patientUsername, query, consumer);
+    }
+
+    @Override
+    public int streamCaregiverAppointments(String caregiverUsername, AppointmentQuery query,
+                                           Consumer<Appointment> consumer) throws SQLException {
+        return streamAppointments(streamCaregiverAppointments, caregiverUsername, query, consumer);
+    }
+
+    @Override
+    public List<String> importBatch(ImportBatch batch) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String addCaregiver = "INSERT INTO Caregivers (" + userColumns + ") SELECT " + userValues + " " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Caregivers WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)";
+        String addPatient = "INSERT INTO Patients (" + userColumns + ") SELECT " + userValues + " " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Patients WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)";
+        String addDoses = "MERGE Vaccines WITH (HOLDLOCK) AS v " +
+                "USING (SELECT ? AS Name, ? AS Doses) AS s ON v.Name = s.Name " +
+                "WHEN MATCHED THEN UPDATE SET Doses = v.Doses + s.Doses " +
+                "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (s.Name, s.Doses);";
+        try {
+            con.setAutoCommit(false);
+            List<String> skipped = new ArrayList<>();
+            try (PreparedStatement statement = con.prepareStatement(addCaregiver)) {
+                for (Caregiver caregiver : batch.getCaregivers()) {
+                    addUserToBatch(statement, caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash(),
+                            caregiver.getIterations());
+                }
+                collectSkipped(statement.executeBatch(), batch.getCaregivers(), Caregiver::getUsername, skipped);
+            }
+            try (PreparedStatement statement = con.prepareStatement(addPatient)) {
+                for (Patient patient : batch.getPatients()) {
+                    addUserToBatch(statement, patient.getUsername(), patient.getSalt(), patient.getHash(),
+                            patient.getIterations());
+                }
+                collectSkipped(statement.executeBatch(), batch.getPatients(), Patient::getUsername, skipped);
+            }
+            try (PreparedStatement statement = con.prepareStatement(addDoses)) {
+                for (Map.Entry<String, Integer> entry : batch.getDoses().entrySet()) {
+                    statement.setString(1, entry.getKey());
+                    statement.setInt(2, entry.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            con.commit();
+            // skipped usernames were taken, so every username of the batch exists now
+            for (Caregiver caregiver : batch.getCaregivers()) {
+                if (caregiverNames != null) {
+                    caregiverNames.add(caregiver.getUsername());
+                }
+            }
+            for (Patient patient : batch.getPatients()) {
+                if (patientNames != null) {
+                    patientNames.add(patient.getUsername());
+                }
+            }
+            return skipped;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    @Override
+    public void pinConnection() throws SQLException {
+        cm.pinConnection();
+    }
+
+    @Override
+    public void unpinConnection() {
+        cm.unpinConnection();
+    }
+
+    @Override
+    public void close() {
+        if (doseLeases != null) {
+            doseLeases.close();
+        }
+        cm.shutdown();
+    }
+
+    private List<Vaccine> readVaccines(ResultSet resultSet) throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        while (resultSet.next()) {
+            String name = resultSet.getString("Name");
+            vaccines.add(new Vaccine.VaccineBuilder(name, resultSet.getInt("Doses") + heldDoses(name)).build());
+        }
+        return vaccines;
+    }
+
+    private int heldDoses(String vaccineName) {
+        return doseLeases == null ? 0 : doseLeases.held(vaccineName);
+    }
+
+    /**
+     * Moves up to {@code max} doses of the vaccine out of the Vaccines table and returns how many
+     * were moved.
+     */
+    private int leaseDoses(String vaccineName, int max) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String leaseDoses = "UPDATE Vaccines SET Doses = Doses - CASE WHEN Doses >= ? THEN ? ELSE Doses END " +
+                "OUTPUT deleted.Doses - inserted.Doses AS Leased WHERE Name = ? AND Doses > 0";
+        try (PreparedStatement statement = con.prepareStatement(leaseDoses)) {
+            statement.setInt(1, max);
+            statement.setInt(2, max);
+            statement.setString(3, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt("Leased") : 0;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private void giveBackDoses(Map<String, Integer> doses) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String giveBack = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+        try (PreparedStatement statement = con.prepareStatement(giveBack)) {
+            con.setAutoCommit(false);
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                statement.setInt(1, entry.getValue());
+                statement.setString(2, entry.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    /**
+     * Leases a block of IDs from the IdBlocks counter for the given table. The counter is seeded
+     * past the table's current maximum ID the first time it is used, and the IdBlocks table is
+     * created on the first lease if the database does not have it.
+     */
+    private int leaseIdBlock(String table, int blockSize) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        String leaseBlock = "UPDATE IdBlocks SET NextID = NextID + ? OUTPUT deleted.NextID WHERE Name = ?";
+        // the table name is one of our own constants, never user input
+        String seedCounter = "INSERT INTO IdBlocks (Name, NextID) SELECT ?, ISNULL(MAX(ID), 0) + 1 FROM " + table;
+        try {
+            if (!idBlocksCreated) {
+                try (PreparedStatement createStmt = con.prepareStatement(CREATE_ID_BLOCKS)) {
+                    createStmt.execute();
+                } catch (SQLException e) {
+                    // another instance created it between the check and the CREATE
+                    if (e.getErrorCode() != OBJECT_EXISTS_ERROR) {
+                        throw e;
+                    }
+                }
+                idBlocksCreated = true;
+            }
+            while (true) {
+                try (PreparedStatement leaseStmt = con.prepareStatement(leaseBlock)) {
+                    leaseStmt.setInt(1, blockSize);
+                    leaseStmt.setString(2, table);
+                    ResultSet resultSet = leaseStmt.executeQuery();
+                    if (resultSet.next()) {
+                        return resultSet.getInt("NextID");
+                    }
+                }
+                try (PreparedStatement seedStmt = con.prepareStatement(seedCounter)) {
+                    seedStmt.setString(1, table);
+                    seedStmt.executeUpdate();
+                } catch (SQLException e) {
+                    // another instance seeded the counter first; lease from it
+                    if (e.getErrorCode() != DUPLICATE_KEY_ERROR) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private boolean usernameExists(String selectUsername, String username) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(selectUsername)) {
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+            return resultSet.isBeforeFirst();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private void saveUser(String insertUser, String username, byte[] salt, byte[] hash, int iterations)
+            throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(insertUser)) {
+            setUser(statement, username, salt, hash, iterations);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY_ERROR) {
+                throw new SQLIntegrityConstraintViolationException("Username taken: " + username, e.getSQLState(),
+                        e.getErrorCode(), e);
+            }
+            throw e;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    /**
+     * Reads every username of the table into a new filter. Returns null if the capacity is 0 or the
+     * usernames could not be read.
+     */
+    private UsernameFilter loadUsernameFilter(String table, int capacity) {
+        if (capacity <= 0) {
+            return null;
+        }
+        UsernameFilter filter = new UsernameFilter(capacity, UsernameFilter.FALSE_POSITIVE_RATE);
+        // the table name is one of our own constants, never user input
+        String usernameQuery = "SELECT Username FROM " + table;
+        try {
+            Connection con = cm.borrowConnection();
+            try (PreparedStatement statement = con.prepareStatement(usernameQuery)) {
+                statement.setFetchSize(1000);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    filter.add(resultSet.getString("Username"));
+                }
+                return filter;
+            } finally {
+                cm.returnConnection(con);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error occurred when loading the usernames of " + table);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void addUserToBatch(PreparedStatement statement, String username, byte[] salt, byte[] hash,
+                                int iterations) throws SQLException {
+        int next = setUser(statement, username, salt, hash, iterations);
+        statement.setString(next, username);
+        statement.addBatch();
+    }
+
+    // binds the userColumns and returns the index of the next parameter
+    private int setUser(PreparedStatement statement, String username, byte[] salt, byte[] hash, int iterations)
+            throws SQLException {
+        statement.setString(1, username);
+        statement.setBytes(2, salt);
+        statement.setBytes(3, hash);
+        if (!hashIterationsStored) {
+            return 4;
+        }
+        statement.setInt(4, iterations);
+        return 5;
+    }
+
+    private int readIterations(ResultSet resultSet) throws SQLException {
+        if (!hashIterationsStored) {
+            return PasswordHasher.LEGACY_ITERATIONS;
+        }
+        int iterations = resultSet.getInt("HashIterations");
+        return resultSet.wasNull() ? PasswordHasher.LEGACY_ITERATIONS : iterations;
+    }
+
+    private static <T> void collectSkipped(int[] counts, List<T> users, Function<T, String> username,
+                                           List<String> skipped) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                skipped.add(username.apply(users.get(i)));
+            }
+        }
+    }
+
+    private int streamAppointments(String streamQuery, String username, AppointmentQuery query,
+                                   Consumer<Appointment> consumer) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(streamQuery)) {
+            statement.setFetchSize(appointmentFetchSize);
+            statement.setInt(1, query.getLimit());
+            statement.setString(2, username);
+            statement.setDate(3, query.getFrom());
+            statement.setDate(4, query.getTo());
+            statement.setDate(5, query.getAfterTime());
+            statement.setDate(6, query.getAfterTime());
+            statement.setInt(7, query.getAfterId());
+            ResultSet resultSet = statement.executeQuery();
+            int count = 0;
+            while (resultSet.next()) {
+                consumer.accept(readAppointment(resultSet));
+                count++;
+            }
+            return count;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private List<Appointment> getAppointments(String query, String username) throws SQLException {
+        Connection con = cm.borrowConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            List<Appointment> appointments = new ArrayList<>();
+            while (resultSet.next()) {
+                appointments.add(readAppointment(resultSet));
+            }
+            return appointments;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private Appointment readAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment.AppointmentBuilder(resultSet.getInt("ID"), resultSet.getDate("Time"),
+                resultSet.getString("Vaccine"), resultSet.getString("Caregiver"), resultSet.getString("Patient"))
+                .startTime(schedule.isEnabled() ? resultSet.getTime("StartTime") : null)
+                .build();
+    }
+}
@@ -0,0 +1,197 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the prepared statements of one pooled connection open for reuse, so that each SQL text is
+ * prepared once per connection instead of on every call.
+ *
+ * {@code prepareStatement(sql)} on the wrapped connection hands out the cached statement for that
+ * text, with its parameters and batch cleared, and closing it returns it to the cache instead of
+ * closing it. The least recently used statement is closed once the cache holds more than its
+ * capacity. A statement that is still open when the same text is prepared again is left alone and
+ * a separate, uncached one is prepared for the second caller. Closing the connection closes all
+ * cached statements.
+ *
+ * Hits, misses and evictions are counted over all connections; see {@link #getStats()}.
+ */
+public class StatementCache implements InvocationHandler {
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private final Connection delegate;
+    private final int capacity;
+    // in least recently used order, so the eldest entry is the one to evict
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    private StatementCache(Connection delegate, int capacity) {
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Wraps the connection with a statement cache of the given capacity, or returns it unchanged if
+     * the capacity is not positive.
+     */
+    static Connection wrap(Connection con, int capacity) {
+        if (capacity <= 0) {
+            return con;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new StatementCache(con, capacity));
+    }
+
+    static StatementCacheStats getStats() {
+        return new StatementCacheStats(hits.get(), misses.get(), evictions.get());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("prepareStatement") && args != null && args.length == 1) {
+            return prepare((String) args[0]);
+        }
+        if (name.equals("close")) {
+            closeAll();
+        }
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse && !cached.statement.isClosed()) {
+            hits.incrementAndGet();
+            cached.statement.clearParameters();
+            cached.statement.clearBatch();
+            cached.inUse = true;
+            return cached.proxy;
+        }
+        misses.incrementAndGet();
+        if (cached != null && cached.inUse) {
+            // the cached one is busy; this one is closed as usual
+            return delegate.prepareStatement(sql);
+        }
+        cached = new CachedStatement(delegate.prepareStatement(sql));
+        cached.inUse = true;
+        statements.put(sql, cached);
+        evictEldest();
+        return cached.proxy;
+    }
+
+    private void evictEldest() {
+        Iterator<CachedStatement> it = statements.values().iterator();
+        while (statements.size() > capacity && it.hasNext()) {
+            CachedStatement eldest = it.next();
+            it.remove();
+            evictions.incrementAndGet();
+            eldest.evicted = true;
+            if (!eldest.inUse) {
+                closeQuietly(eldest.statement);
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            closeQuietly(cached.statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class CachedStatement implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close")) {
+                inUse = false;
+                if (evicted) {
+                    statement.close();
+                } else if (statement.getResultSet() != null) {
+                    // closing a statement closes its result set, and callers rely on that
+                    statement.getResultSet().close();
+                }
+                return null;
+            }
+            if (method.getName().equals("isClosed")) {
+                return !inUse || statement.isClosed();
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    public static class StatementCacheStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private StatementCacheStats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        // Getters
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public double getHitRatio() {
+            return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return "StatementCacheStats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    '}';
+        }
+    }
+}
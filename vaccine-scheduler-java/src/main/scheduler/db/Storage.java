@@ -0,0 +1,191 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Persistence operations used by the model classes and the scheduler commands. Each method is a
+ * self-contained unit of work: implementations acquire and release whatever resources they need.
+ *
+ * Use {@link StorageManager#getStorage()} to obtain the configured implementation.
+ */
+public interface Storage {
+
+    // Caregivers
+    boolean caregiverExists(String username) throws SQLException;
+
+    /**
+     * Saves a new caregiver. Throws {@link java.sql.SQLIntegrityConstraintViolationException} if the
+     * username is taken.
+     */
+    void saveCaregiver(Caregiver caregiver) throws SQLException;
+
+    /**
+     * Returns the caregiver with its stored salt and hash, or null if there is no such caregiver.
+     * The password is not checked here.
+     */
+    Caregiver getCaregiver(String username) throws SQLException;
+
+    void addAvailability(String caregiverUsername, Date date) throws SQLException;
+
+    /**
+     * Adds the caregiver's availability on all the given dates in a single transaction, skipping
+     * dates the caregiver is already available on. Returns the number of dates added.
+     */
+    int addAvailabilities(String caregiverUsername, List<Date> dates) throws SQLException;
+
+    /**
+     * Adds the given {@link SlotSchedule} slots to the caregiver's free slots on the date. A
+     * caregiver available the whole day stays available the whole day.
+     */
+    void addAvailabilitySlots(String caregiverUsername, Date date, long slots) throws SQLException;
+
+    // Patients
+    boolean patientExists(String username) throws SQLException;
+
+    /**
+     * Saves a new patient. Throws {@link java.sql.SQLIntegrityConstraintViolationException} if the
+     * username is taken.
+     */
+    void savePatient(Patient patient) throws SQLException;
+
+    /**
+     * Returns the patient with its stored salt and hash, or null if there is no such patient.
+     * The password is not checked here.
+     */
+    Patient getPatient(String username) throws SQLException;
+
+    // Vaccines
+    Vaccine getVaccine(String vaccineName) throws SQLException;
+
+    void saveVaccine(Vaccine vaccine) throws SQLException;
+
+    /**
+     * Adds doses to the vaccine in a single relative update, creating the vaccine if it does not
+     * exist yet. Returns the number of doses available afterwards.
+     */
+    int addVaccineDoses(String vaccineName, int num) throws SQLException;
+
+    /**
+     * Takes doses from the vaccine in a single conditional update that only succeeds if at least
+     * {@code num} are available. Returns the number of doses left, or -1 if there were not enough
+     * (or no such vaccine), in which case nothing is taken.
+     */
+    int takeVaccineDoses(String vaccineName, int num) throws SQLException;
+
+    List<Vaccine> listVaccines() throws SQLException;
+
+    // Appointments
+    /**
+     * Returns the usernames of the caregivers available on the given date, ordered by username.
+     */
+    List<String> findAvailableCaregivers(Date date) throws SQLException;
+
+    /**
+     * Returns the free {@link SlotSchedule} slots of each caregiver available on the given date,
+     * ordered by username. Caregivers available the whole day have every slot.
+     */
+    Map<String, Long> findAvailableSlots(Date date) throws SQLException;
+
+    /**
+     * Returns the first {@code maxDays} days from {@code from} to {@code to} (inclusive) on which any
+     * caregiver is available, with the number of caregivers available on each and, if
+     * {@code withCaregivers} is true, their usernames, together with the stock of every vaccine.
+     */
+    AvailabilitySummary searchAvailability(Date from, Date to, int maxDays, boolean withCaregivers)
+            throws SQLException;
+
+    /**
+     * Returns every availability, as the caregivers available on each date ordered by username.
+     */
+    Map<Date, List<String>> getAvailabilities() throws SQLException;
+
+    /**
+     * Returns the number of appointments on or after the given date of each caregiver that has any.
+     */
+    Map<String, Integer> countCaregiverAppointments(Date from) throws SQLException;
+
+    /**
+     * Books an appointment on the given date with an available caregiver, using up the caregiver's
+     * availability and one dose of the vaccine in a single transaction. When days are divided into
+     * {@link SlotSchedule slots}, the earliest free slot of any caregiver is booked instead of the
+     * caregiver's whole day.
+     */
+    Appointment reserve(Date date, String vaccineName, String patientUsername)
+            throws SQLException, ReservationException;
+
+    /**
+     * Like {@link #reserve(Date, String, String)}, but books the given caregiver. Fails with
+     * {@link ReservationException.Reason#NO_CAREGIVER_AVAILABLE} if that caregiver is not available
+     * on the date.
+     */
+    Appointment reserve(Date date, String vaccineName, String patientUsername, String caregiverUsername)
+            throws SQLException, ReservationException;
+
+    /**
+     * Cancels the patient's appointment in a single transaction, making the caregiver available on
+     * its date (or in its slot) again and returning its dose. Returns the cancelled appointment, or null if the
+     * patient has no appointment with that ID.
+     */
+    Appointment cancelPatientAppointment(int appointmentId, String patientUsername) throws SQLException;
+
+    /**
+     * Like {@link #cancelPatientAppointment(int, String)}, for an appointment of the caregiver.
+     */
+    Appointment cancelCaregiverAppointment(int appointmentId, String caregiverUsername) throws SQLException;
+
+    /**
+     * Returns the patient's appointments ordered by ID.
+     */
+    List<Appointment> getPatientAppointments(String patientUsername) throws SQLException;
+
+    /**
+     * Returns the caregiver's appointments ordered by ID.
+     */
+    List<Appointment> getCaregiverAppointments(String caregiverUsername) throws SQLException;
+
+    /**
+     * Passes the patient's appointments selected by the query to the consumer in (Time, ID) order.
+     * Database backends pass each appointment on as it is read instead of collecting them first,
+     * so their memory use does not grow with the number of appointments. Returns the number of
+     * appointments passed.
+     */
+    int streamPatientAppointments(String patientUsername, AppointmentQuery query, Consumer<Appointment> consumer)
+            throws SQLException;
+
+    /**
+     * Like {@link #streamPatientAppointments(String, AppointmentQuery, Consumer)}, for the caregiver's
+     * appointments.
+     */
+    int streamCaregiverAppointments(String caregiverUsername, AppointmentQuery query,
+                                    Consumer<Appointment> consumer) throws SQLException;
+
+    /**
+     * Imports the batch in a single transaction. Caregivers and patients whose username is taken
+     * are skipped; doses are added to existing vaccines, and vaccines that do not exist yet are
+     * created. Returns the usernames that were skipped.
+     */
+    List<String> importBatch(ImportBatch batch) throws SQLException;
+
+    /**
+     * Keeps the resources this storage uses (e.g. a database connection) bound to the calling
+     * thread until {@link #unpinConnection()}, for workers that run many commands in a row.
+     * Backends without connections do nothing.
+     */
+    void pinConnection() throws SQLException;
+
+    void unpinConnection();
+
+    /**
+     * Releases any resources held by this storage.
+     */
+    void close();
+}
@@ -0,0 +1,55 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+/**
+ * Holds the storage backend used by the application.
+ *
+ * The backend is chosen with the StorageBackend environment variable: "sqlserver" (the default)
+ * uses the Azure SQL Server database configured for {@link ConnectionManager}, "memory" uses the
+ * {@link InMemoryFakeStorage in-memory fake}, which runs none of the SQL.
+ *
+ * SQL Server storage answers availability lookups from an in-memory {@link IndexedStorage index}
+ * reloaded every AvailabilityResyncSeconds (default 30; 0 only loads it at startup). Set
+ * AvailabilityIndex=off to query the database directly, or AvailabilityIndex=off-heap to keep the
+ * index's bitmaps outside the Java heap. Caregivers are picked by the {@link CaregiverSelector}
+ * named by CaregiverSelection. The index is not used when days are divided into time slots
+ * (SlotMinutes, see {@link SlotSchedule}).
+ */
+public class StorageManager {
+
+    private static Storage storage = null;
+
+    private StorageManager() {
+    }
+
+    public static synchronized Storage getStorage() {
+        if (storage == null) {
+            storage = createStorage(System.getenv("StorageBackend"));
+        }
+        return storage;
+    }
+
+    /**
+     * Replaces the storage backend, e.g. to run against a fresh in-memory fake.
+     */
+    public static synchronized void setStorage(Storage newStorage) {
+        storage = newStorage;
+    }
+
+    public static Storage createStorage(String backend) {
+        if (backend == null || backend.isEmpty() || backend.equalsIgnoreCase("sqlserver")) {
+            Storage sqlServer = new SqlServerStorage();
+            String indexMode = System.getenv("AvailabilityIndex");
+            if ("off".equalsIgnoreCase(indexMode) || SlotSchedule.configured().isEnabled()) {
+                return sqlServer;
+            }
+            AvailabilityIndex index = new AvailabilityIndex("off-heap".equalsIgnoreCase(indexMode));
+            return new IndexedStorage(sqlServer, index, Util.envInt("AvailabilityResyncSeconds",
+                    IndexedStorage.DEFAULT_RESYNC_SECONDS), CaregiverSelector.configured());
+        } else if (backend.equalsIgnoreCase("memory")) {
+            return new InMemoryFakeStorage();
+        }
+        throw new IllegalArgumentException("Unknown storage backend: " + backend);
+    }
+}
@@ -0,0 +1,86 @@
+package scheduler.db;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter of usernames, compared case-insensitively like the database.
+ *
+ * {@link #mightContain(String)} never returns false for a username that was added, but may return
+ * true for one that was not, with about the configured false positive rate while no more than the
+ * expected number of usernames have been added. A filter that has outgrown its size only answers
+ * "maybe" more often.
+ */
+public class UsernameFilter {
+
+    public static final int DEFAULT_CAPACITY = 1_000_000;
+    public static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    public UsernameFilter(int expectedUsernames, double falsePositiveRate) {
+        // the standard sizing: m = -n ln p / (ln 2)^2 bits and k = m / n ln 2 hashes
+        long bits = (long) Math.ceil(-Math.max(1, expectedUsernames) * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = (long) wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / Math.max(1, expectedUsernames)
+                * Math.log(2)));
+    }
+
+    public void add(String username) {
+        long hash = hash(username);
+        // double hashing: the i-th position is h1 + i * h2
+        long h1 = hash;
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    /**
+     * Returns false if the username was definitely never added, true if it may have been.
+     */
+    public boolean mightContain(String username) {
+        long hash = hash(username);
+        long h1 = hash;
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(String username) {
+        // FNV-1a over the lower-case characters, then mixed so that similar names spread out
+        String key = username.toLowerCase(Locale.ROOT);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // the finalizer of MurmurHash3's 64-bit variant
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
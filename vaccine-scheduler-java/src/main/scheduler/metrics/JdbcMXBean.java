@@ -0,0 +1,14 @@
+package scheduler.metrics;
+
+/**
+ * Counters for the JDBC work done through pooled connections.
+ */
+public interface JdbcMXBean {
+    long getStatements();
+
+    long getCommits();
+
+    long getRollbacks();
+
+    long getFailures();
+}
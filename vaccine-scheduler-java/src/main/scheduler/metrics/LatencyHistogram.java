@@ -0,0 +1,128 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} buckets, so recorded values are kept to within 1/{@value #SUB_BUCKETS}
+ * of their size. Recording is a few atomic increments; percentiles report the upper bound of the
+ * bucket they fall in.
+ */
+public class LatencyHistogram implements LatencyMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        totalMicros.add(micros);
+        if (micros > maxMicros.get()) {
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalMicros.sum() / (double) n;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return percentile(0.999);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        totalMicros.reset();
+        maxMicros.set(0);
+    }
+
+    /**
+     * Returns the upper bound of the bucket below which the given fraction of the values fall.
+     */
+    public long percentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() +
+                ", meanMicros=" + Math.round(getMeanMicros()) +
+                ", p50Micros=" + getP50Micros() +
+                ", p99Micros=" + getP99Micros() +
+                ", p999Micros=" + getP999Micros() +
+                ", maxMicros=" + getMaxMicros();
+    }
+
+    // values below SUB_BUCKETS get a bucket each; above that, SUB_BUCKETS buckets per power of two
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
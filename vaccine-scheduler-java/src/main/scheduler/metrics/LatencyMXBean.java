@@ -0,0 +1,20 @@
+package scheduler.metrics;
+
+/**
+ * Latency distribution of one operation, in microseconds.
+ */
+public interface LatencyMXBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    long getMaxMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    void reset();
+}
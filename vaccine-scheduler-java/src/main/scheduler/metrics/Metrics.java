@@ -0,0 +1,189 @@
+package scheduler.metrics;
+
+import scheduler.util.Util;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Application-wide timing and counters, exposed as MXBeans in the "scheduler" JMX domain:
+ * <pre>
+ * scheduler:type=Command,name=&lt;command&gt;,part=total           time to run the command
+ * scheduler:type=Command,name=&lt;command&gt;,part=connectionWait  of which waiting for connections
+ * scheduler:type=Command,name=&lt;command&gt;,part=statements      of which executing statements
+ * scheduler:type=Statement,name=&lt;executeQuery|executeUpdate|executeBatch|execute&gt;
+ * scheduler:type=ConnectionWait                              every wait for a pooled connection
+ * scheduler:type=Jdbc                                        statement, commit, rollback and failure counts
+ * </pre>
+ * With MetricsLogSeconds set to a positive number, a summary is also written to standard error
+ * at that interval.
+ */
+public class Metrics {
+
+    private static final String DOMAIN = "scheduler";
+
+    private static final Map<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> statements = new ConcurrentHashMap<>();
+    private static final LatencyHistogram connectionWait = register(new LatencyHistogram(),
+            DOMAIN + ":type=ConnectionWait");
+    private static final JdbcCounters jdbc = register(new JdbcCounters(), DOMAIN + ":type=Jdbc");
+
+    // connection wait and statement time of the command running on this thread
+    private static final ThreadLocal<CommandTimer> currentCommand = ThreadLocal.withInitial(CommandTimer::new);
+
+    static {
+        int logSeconds = Util.envInt("MetricsLogSeconds", 0);
+        if (logSeconds > 0) {
+            ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-log");
+                t.setDaemon(true);
+                return t;
+            });
+            logger.scheduleAtFixedRate(() -> System.err.print(summary()), logSeconds, logSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Marks the start of a command on the current thread. Returns the start time to pass to
+     * {@link #endCommand(String, long)}.
+     */
+    public static long startCommand() {
+        CommandTimer timer = currentCommand.get();
+        timer.waitNanos = 0;
+        timer.statementNanos = 0;
+        return System.nanoTime();
+    }
+
+    public static void endCommand(String command, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        CommandTimer timer = currentCommand.get();
+        CommandMetrics metrics = commands.computeIfAbsent(command, CommandMetrics::new);
+        metrics.total.record(elapsed);
+        metrics.connectionWait.record(timer.waitNanos);
+        metrics.statements.record(timer.statementNanos);
+    }
+
+    public static void recordConnectionWait(long nanos) {
+        connectionWait.record(nanos);
+        currentCommand.get().waitNanos += nanos;
+    }
+
+    public static void recordStatement(String kind, long nanos, boolean failed) {
+        statements.computeIfAbsent(kind, k -> register(new LatencyHistogram(),
+                DOMAIN + ":type=Statement,name=" + ObjectName.quote(k))).record(nanos);
+        currentCommand.get().statementNanos += nanos;
+        jdbc.statements.increment();
+        if (failed) {
+            jdbc.failures.increment();
+        }
+    }
+
+    public static void recordCommit() {
+        jdbc.commits.increment();
+    }
+
+    public static void recordRollback() {
+        jdbc.rollbacks.increment();
+    }
+
+    public static void recordFailure() {
+        jdbc.failures.increment();
+    }
+
+    /**
+     * Returns a multi-line, human-readable summary of all metrics.
+     */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder("Metrics:\n");
+        for (Map.Entry<String, CommandMetrics> entry : new TreeMap<>(commands).entrySet()) {
+            CommandMetrics m = entry.getValue();
+            sb.append("  command ").append(entry.getKey()).append(": ").append(m.total)
+                    .append(", connectionWaitMeanMicros=").append(Math.round(m.connectionWait.getMeanMicros()))
+                    .append(", statementsMeanMicros=").append(Math.round(m.statements.getMeanMicros()))
+                    .append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(statements).entrySet()) {
+            sb.append("  statement ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        sb.append("  connectionWait: ").append(connectionWait).append('\n');
+        sb.append("  jdbc: statements=").append(jdbc.getStatements())
+                .append(", commits=").append(jdbc.getCommits())
+                .append(", rollbacks=").append(jdbc.getRollbacks())
+                .append(", failures=").append(jdbc.getFailures()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Registers the bean with the platform MBean server, if it is not registered under that name
+     * already. Registration problems are reported but do not stop the caller.
+     */
+    public static <T> T register(T bean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register " + name + ": " + e);
+        }
+        return bean;
+    }
+
+    private static class CommandTimer {
+        private long waitNanos = 0;
+        private long statementNanos = 0;
+    }
+
+    private static class CommandMetrics {
+        private final LatencyHistogram total;
+        private final LatencyHistogram connectionWait;
+        private final LatencyHistogram statements;
+
+        private CommandMetrics(String command) {
+            String prefix = DOMAIN + ":type=Command,name=" + ObjectName.quote(command) + ",part=";
+            total = register(new LatencyHistogram(), prefix + "total");
+            connectionWait = register(new LatencyHistogram(), prefix + "connectionWait");
+            statements = register(new LatencyHistogram(), prefix + "statements");
+        }
+    }
+
+    private static class JdbcCounters implements JdbcMXBean {
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder commits = new LongAdder();
+        private final LongAdder rollbacks = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        @Override
+        public long getStatements() {
+            return statements.sum();
+        }
+
+        @Override
+        public long getCommits() {
+            return commits.sum();
+        }
+
+        @Override
+        public long getRollbacks() {
+            return rollbacks.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+    }
+}
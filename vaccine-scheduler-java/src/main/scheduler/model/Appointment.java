@@ -0,0 +1,90 @@
+package scheduler.model;
+
+import java.sql.Date;
+import java.sql.Time;
+
+public class Appointment {
+    private final int id;
+    private final Date time;
+    private final String vaccineName;
+    private final String caregiverUsername;
+    private final String patientUsername;
+    // null for an appointment that takes the caregiver's whole day
+    private final Time startTime;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.id = builder.id;
+        this.time = builder.time;
+        this.vaccineName = builder.vaccineName;
+        this.caregiverUsername = builder.caregiverUsername;
+        this.patientUsername = builder.patientUsername;
+        this.startTime = builder.startTime;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public Time getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "id=" + id +
+                ", time=" + time +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", caregiverUsername='" + caregiverUsername + '\'' +
+                ", patientUsername='" + patientUsername + '\'' +
+                ", startTime=" + startTime +
+                '}';
+    }
+
+    public static class AppointmentBuilder {
+        private final int id;
+        private final Date time;
+        private final String vaccineName;
+        private final String caregiverUsername;
+        private final String patientUsername;
+        private Time startTime = null;
+
+        public AppointmentBuilder(int id, Date time, String vaccineName, String caregiverUsername,
+                                  String patientUsername) {
+            this.id = id;
+            this.time = time;
+            this.vaccineName = vaccineName;
+            this.caregiverUsername = caregiverUsername;
+            this.patientUsername = patientUsername;
+        }
+
+        /**
+         * Sets the start of the time slot booked, for days divided into slots.
+         */
+        public AppointmentBuilder startTime(Time startTime) {
+            this.startTime = startTime;
+            return this;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+}
@@ -1,26 +1,31 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.StorageManager;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int iterations;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     // Getters
@@ -36,45 +41,33 @@ public class Caregiver {
         return hash;
     }
 
+    public int getIterations() {
+        return iterations;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.getStorage().saveCaregiver(this);
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.getStorage().addAvailability(this.username, d);
+    }
+
+    // Upload time slots of a day, as a bitset of scheduler.db.SlotSchedule slots
+    public void uploadAvailability(Date d, long slots) throws SQLException {
+        StorageManager.getStorage().addAvailabilitySlots(this.username, d, slots);
+    }
+
+    // Upload many dates at once; returns how many were not already uploaded
+    public int uploadAvailability(List<Date> dates) throws SQLException {
+        return StorageManager.getStorage().addAvailabilities(this.username, dates);
     }
 
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private int iterations = PasswordHasher.getInstance().getIterations();
 
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
             this.username = username;
@@ -82,6 +75,14 @@ public class Caregiver {
             this.hash = hash;
         }
 
+        /**
+         * Sets the PBKDF2 iterations the hash was made with, if not the configured HashIterations.
+         */
+        public CaregiverBuilder iterations(int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
         public Caregiver build() {
             return new Caregiver(this);
         }
@@ -92,6 +93,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int iterations;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,34 +101,22 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Caregiver stored = StorageManager.getStorage().getCaregiver(this.username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            // we need to call Util.trim() to get rid of the paddings,
+            // try to remove the use of Util.trim() and you'll see :)
+            byte[] hash = Util.trim(stored.getHash());
+            // check if the password matches
+            if (!PasswordHasher.getInstance().verify(password, salt, hash, stored.getIterations())) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+            } else {
+                this.salt = salt;
+                this.hash = hash;
+                this.iterations = stored.getIterations();
+                return new Caregiver(this);
             }
         }
     }
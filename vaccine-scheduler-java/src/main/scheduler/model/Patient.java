@@ -1,29 +1,29 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.StorageManager;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Arrays;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int iterations;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     // Getters
@@ -39,22 +39,12 @@ public class Patient {
         return hash;
     }
 
+    public int getIterations() {
+        return iterations;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients (Username, Salt, Hash) VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.getStorage().savePatient(this);
     }
 
 
@@ -62,6 +52,7 @@ public class Patient {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private int iterations = PasswordHasher.getInstance().getIterations();
 
         public PatientBuilder(String username, byte[] salt, byte[] hash) {
             this.username = username;
@@ -69,6 +60,14 @@ public class Patient {
             this.hash = hash;
         }
 
+        /**
+         * Sets the PBKDF2 iterations the hash was made with, if not the configured HashIterations.
+         */
+        public PatientBuilder iterations(int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
         public Patient build() {
             return new Patient(this);
         }
@@ -79,6 +78,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int iterations;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -86,34 +86,22 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            Patient stored = StorageManager.getStorage().getPatient(this.username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            // we need to call Util.trim() to get rid of the paddings,
+            // try to remove the use of Util.trim() and you'll see :)
+            byte[] hash = Util.trim(stored.getHash());
+            // check if the password matches
+            if (!PasswordHasher.getInstance().verify(password, salt, hash, stored.getIterations())) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+            } else {
+                this.salt = salt;
+                this.hash = hash;
+                this.iterations = stored.getIterations();
+                return new Patient(this);
             }
         }
     }
@@ -1,10 +1,7 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.StorageManager;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class Vaccine {
@@ -31,65 +28,28 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.getStorage().saveVaccine(this);
     }
 
-    // Increment the available doses
+    // Increment the available doses, creating the vaccine if it is not stored yet. The stored count is
+    // changed relative to its current value, and this vaccine's count is refreshed from the result.
     public void increaseAvailableDoses(int num) throws SQLException {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        this.availableDoses = StorageManager.getStorage().addVaccineDoses(this.vaccineName, num);
     }
 
-    // Decrement the available doses
+    // Decrement the available doses, only if the stored count is at least num
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        int remaining = StorageManager.getStorage().takeVaccineDoses(this.vaccineName, num);
+        if (remaining < 0) {
+            throw new IllegalArgumentException("Not enough available doses!");
         }
+        this.availableDoses = remaining;
     }
 
     @Override
@@ -123,24 +83,12 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Vaccine stored = StorageManager.getStorage().getVaccine(this.vaccineName);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = stored.getAvailableDoses();
+            return new Vaccine(this);
         }
     }
 }
@@ -0,0 +1,219 @@
+package scheduler.tools;
+
+import scheduler.db.ReservationException;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-threaded stress test for reserve and cancel running against each other. Each thread
+ * books and cancels appointments on a few dates for a while, with fewer doses than slots. Two
+ * threads share each patient and cancel from the same list of appointments, so the same
+ * appointment is regularly cancelled twice at once. Afterwards it checks that every caregiver
+ * slot is either available or booked exactly once, and that every dose is either available or
+ * used by an appointment. Reports operations per second for each thread count.
+ *
+ * Usage: CancelStressTest [backend] [caregivers] [days] [seconds] [threadCounts...]
+ * The backend defaults to "memory"; running against "sqlserver" adds uniquely named rows to the
+ * configured database.
+ */
+public class CancelStressTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2031, 1, 1);
+
+    public static void main(String[] args) throws Exception {
+        String backend = args.length > 0 ? args[0] : "memory";
+        int caregivers = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            threadCounts.add(Integer.parseInt(args[i]));
+        }
+        if (threadCounts.isEmpty()) {
+            threadCounts.addAll(List.of(2, 4, 8, 16, 32));
+        }
+
+        boolean failed = false;
+        System.out.println("threads  reservations  cancels  double-cancels  seconds  ops/s  result");
+        for (int threads : threadCounts) {
+            Storage storage = StorageManager.createStorage(backend);
+            try {
+                Result result = run(storage, threads, caregivers, days, seconds * 1000L);
+                System.out.printf("%7d  %12d  %7d  %14d  %7.2f  %5.0f  %s%n", threads, result.reservations,
+                        result.cancels, result.doubleCancels, result.seconds,
+                        (result.reservations + result.cancels) / result.seconds,
+                        result.errors.isEmpty() ? "OK" : "FAILED");
+                for (String error : result.errors) {
+                    System.out.println("  " + error);
+                }
+                failed |= !result.errors.isEmpty();
+            } finally {
+                storage.close();
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(Storage storage, int threads, int caregiverCount, int days, long durationMillis)
+            throws SQLException, InterruptedException {
+        // unique names so repeated runs against a real database do not collide
+        String prefix = "cancel" + System.currentTimeMillis() + "_" + threads + "_";
+        String vaccineName = prefix + "vaccine";
+        int slots = caregiverCount * days;
+        int doses = slots * 3 / 4;
+
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("Stress#Test1", salt);
+        List<String> caregivers = new ArrayList<>();
+        for (int i = 0; i < caregiverCount; i++) {
+            String username = prefix + "cg" + i;
+            storage.saveCaregiver(new Caregiver.CaregiverBuilder(username, salt, hash).build());
+            for (int d = 0; d < days; d++) {
+                storage.addAvailability(username, Date.valueOf(FIRST_DAY.plusDays(d)));
+            }
+            caregivers.add(username);
+        }
+        storage.saveVaccine(new Vaccine.VaccineBuilder(vaccineName, doses).build());
+
+        AtomicInteger reservations = new AtomicInteger();
+        AtomicInteger cancels = new AtomicInteger();
+        AtomicInteger doubleCancels = new AtomicInteger();
+        List<String> errors = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        // appointments booked by each patient, shared by the patient's two threads
+        List<List<Integer>> booked = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String patient = prefix + "p" + (t / 2);
+            if (t % 2 == 0) {
+                storage.savePatient(new Patient.PatientBuilder(patient, salt, hash).build());
+                booked.add(new ArrayList<>());
+            }
+            List<Integer> patientBooked = booked.get(t / 2);
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    long deadline = System.currentTimeMillis() + durationMillis;
+                    while (System.currentTimeMillis() < deadline) {
+                        if (random.nextBoolean()) {
+                            try {
+                                Appointment appointment = storage.reserve(
+                                        Date.valueOf(FIRST_DAY.plusDays(random.nextInt(days))), vaccineName, patient);
+                                reservations.incrementAndGet();
+                                synchronized (patientBooked) {
+                                    patientBooked.add(appointment.getId());
+                                }
+                            } catch (ReservationException e) {
+                                // all slots on the date or all doses are booked; cancelling frees them again
+                            }
+                            continue;
+                        }
+                        Integer appointmentId;
+                        synchronized (patientBooked) {
+                            if (patientBooked.isEmpty()) {
+                                continue;
+                            }
+                            // left in the list, so the other thread of this patient may cancel it too
+                            appointmentId = patientBooked.get(random.nextInt(patientBooked.size()));
+                        }
+                        if (storage.cancelPatientAppointment(appointmentId, patient) != null) {
+                            cancels.incrementAndGet();
+                            synchronized (patientBooked) {
+                                patientBooked.remove(appointmentId);
+                            }
+                        } else {
+                            doubleCancels.incrementAndGet();
+                        }
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    synchronized (errors) {
+                        errors.add("worker " + patient + ": " + e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        verify(storage, caregivers, days, vaccineName, doses, reservations.get() - cancels.get(), errors);
+        return new Result(reservations.get(), cancels.get(), doubleCancels.get(), seconds, errors);
+    }
+
+    private static void verify(Storage storage, List<String> caregivers, int days, String vaccineName, int doses,
+                               int expectedAppointments, List<String> errors) throws SQLException {
+        Set<String> bookedSlots = new HashSet<>();
+        int appointments = 0;
+        for (String caregiver : caregivers) {
+            for (Appointment appointment : storage.getCaregiverAppointments(caregiver)) {
+                appointments++;
+                String slot = appointment.getCaregiverUsername() + "@" + appointment.getTime();
+                if (!bookedSlots.add(slot)) {
+                    errors.add("double-booked slot " + slot);
+                }
+            }
+        }
+        if (appointments != expectedAppointments) {
+            errors.add(appointments + " appointments stored, expected " + expectedAppointments);
+        }
+        for (int d = 0; d < days; d++) {
+            Date date = Date.valueOf(FIRST_DAY.plusDays(d));
+            List<String> available = storage.findAvailableCaregivers(date);
+            for (String caregiver : caregivers) {
+                String slot = caregiver + "@" + date;
+                boolean isAvailable = available.contains(caregiver);
+                if (isAvailable == bookedSlots.contains(slot)) {
+                    errors.add((isAvailable ? "booked slot still available " : "slot lost ") + slot);
+                }
+            }
+        }
+        Vaccine vaccine = storage.getVaccine(vaccineName);
+        int remaining = vaccine == null ? -1 : vaccine.getAvailableDoses();
+        if (remaining < 0) {
+            errors.add("negative doses left: " + remaining);
+        } else if (remaining != doses - appointments) {
+            errors.add(remaining + " doses left, expected " + (doses - appointments));
+        }
+    }
+
+    private static class Result {
+        private final int reservations;
+        private final int cancels;
+        private final int doubleCancels;
+        private final double seconds;
+        private final List<String> errors;
+
+        private Result(int reservations, int cancels, int doubleCancels, double seconds, List<String> errors) {
+            this.reservations = reservations;
+            this.cancels = cancels;
+            this.doubleCancels = doubleCancels;
+            this.seconds = seconds;
+            this.errors = errors;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package scheduler.tools;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays mixed command traffic from many concurrent simulated users against a dataset made by
+ * {@link WorkloadGenerator}, and reports throughput and p50/p99/p999 latency for each command.
+ *
+ * Every simulated user has its own session and repeatedly logs in as a random patient, searches a
+ * few (mostly near-term) dates, sometimes reserves one of them and looks at its appointments, and
+ * logs out. One visit in twenty is a caregiver publishing a week of availability instead. For the first
+ * second of every ten, half of the visits are signups, like the rush after a registration drive
+ * is announced.
+ *
+ * Usage: LoadTestDriver [backend] [users] [seconds] [patients] [caregivers] [days]
+ * The backend defaults to "memory"; running against "sqlserver" adds uniquely named rows to the
+ * configured database.
+ */
+public class LoadTestDriver {
+
+    private static final long BURST_PERIOD_MILLIS = 10_000;
+    private static final long BURST_LENGTH_MILLIS = 1_000;
+
+    private final WorkloadGenerator.Dataset dataset;
+    private final int users;
+    private final long durationMillis;
+    private final AtomicInteger signups = new AtomicInteger();
+
+    public LoadTestDriver(WorkloadGenerator.Dataset dataset, int users, long durationMillis) {
+        this.dataset = dataset;
+        this.users = users;
+        this.durationMillis = durationMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String backend = args.length > 0 ? args[0] : "memory";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int patients = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+        int caregivers = args.length > 4 ? Integer.parseInt(args[4]) : 5_000;
+        int days = args.length > 5 ? Integer.parseInt(args[5]) : 365;
+
+        Storage storage = StorageManager.createStorage(backend);
+        StorageManager.setStorage(storage);
+        try {
+            System.out.println("Generating " + patients + " patients, " + caregivers + " caregivers and " +
+                    days + " days of availability...");
+            WorkloadGenerator.Dataset dataset = new WorkloadGenerator(patients, caregivers, days, 42)
+                    .generate(storage);
+            System.out.println("Generated " + dataset);
+            System.out.println("Running " + users + " simulated users for " + seconds + " s...");
+            Map<String, Samples> samples = new LoadTestDriver(dataset, users, seconds * 1000L).run();
+            report(samples, seconds);
+        } finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Runs the simulated users and returns the latencies recorded for each command.
+     */
+    public Map<String, Samples> run() throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[users];
+        List<Map<String, Samples>> perUser = new ArrayList<>(users);
+        for (int u = 0; u < users; u++) {
+            int user = u;
+            Map<String, Samples> samples = new HashMap<>();
+            perUser.add(samples);
+            threads[u] = new Thread(() -> {
+                try {
+                    start.await();
+                    simulate(new Random(user), samples);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "simulated-user-" + u);
+            threads[u].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<String, Samples> merged = new TreeMap<>();
+        for (Map<String, Samples> userSamples : perUser) {
+            for (Map.Entry<String, Samples> entry : userSamples.entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), k -> new Samples()).addAll(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    private void simulate(Random random, Map<String, Samples> samples) {
+        Session session = new Session(new PrintWriter(Writer.nullWriter()));
+        WorkloadGenerator.ZipfSampler dayPopularity = new WorkloadGenerator.ZipfSampler(dataset.getDays(), 0.8);
+        WorkloadGenerator.ZipfSampler vaccinePopularity =
+                new WorkloadGenerator.ZipfSampler(dataset.getVaccines(), 1.2);
+        long startMillis = System.currentTimeMillis();
+        long deadline = startMillis + durationMillis;
+        long now;
+        while ((now = System.currentTimeMillis()) < deadline) {
+            boolean burst = (now - startMillis) % BURST_PERIOD_MILLIS < BURST_LENGTH_MILLIS;
+            double visit = random.nextDouble();
+            if (visit < (burst ? 0.5 : 0.02)) {
+                String username = dataset.getPrefix() + "new" + signups.incrementAndGet();
+                run(session, samples, "create_patient " + username + " " + WorkloadGenerator.PASSWORD);
+            } else if (visit > 0.95) {
+                String caregiver = dataset.caregiver(random.nextInt(dataset.getCaregivers()));
+                run(session, samples, "login_caregiver " + caregiver + " " + WorkloadGenerator.PASSWORD);
+                int day = random.nextInt(dataset.getDays());
+                // a week at a time, which skips the days that are already published
+                run(session, samples, "upload_availability " + dataset.day(day) + " " + dataset.day(day + 6) +
+                        " weekdays");
+                run(session, samples, "show_appointments");
+                run(session, samples, "logout");
+            } else {
+                String patient = dataset.patient(random.nextInt(dataset.getPatients()));
+                run(session, samples, "login_patient " + patient + " " + WorkloadGenerator.PASSWORD);
+                int searches = 1 + random.nextInt(5);
+                int day = 0;
+                for (int i = 0; i < searches; i++) {
+                    day = dayPopularity.sample(random);
+                    run(session, samples, "search_caregiver_schedule " + dataset.day(day));
+                }
+                if (random.nextDouble() < 0.5) {
+                    run(session, samples, "reserve " + dataset.day(day) + " " +
+                            dataset.vaccine(vaccinePopularity.sample(random)));
+                }
+                if (random.nextDouble() < 0.3) {
+                    run(session, samples, "show_appointments");
+                }
+                run(session, samples, "logout");
+            }
+        }
+    }
+
+    private void run(Session session, Map<String, Samples> samples, String command) {
+        long start = System.nanoTime();
+        Scheduler.execute(session, command);
+        long elapsed = System.nanoTime() - start;
+        int space = command.indexOf(' ');
+        samples.computeIfAbsent(space < 0 ? command : command.substring(0, space), k -> new Samples()).add(elapsed);
+    }
+
+    private static void report(Map<String, Samples> samples, int seconds) {
+        System.out.println("command                        count      ops/s    p50 ms    p99 ms   p999 ms    max ms");
+        long total = 0;
+        for (Map.Entry<String, Samples> entry : samples.entrySet()) {
+            Samples s = entry.getValue();
+            s.sort();
+            total += s.size();
+            System.out.printf("%-26s %9d %10.0f %9.3f %9.3f %9.3f %9.3f%n", entry.getKey(), s.size(),
+                    s.size() / (double) seconds, s.percentile(0.5) / 1e6, s.percentile(0.99) / 1e6,
+                    s.percentile(0.999) / 1e6, s.percentile(1) / 1e6);
+        }
+        System.out.printf("%-26s %9d %10.0f%n", "total", total, total / (double) seconds);
+    }
+
+    /**
+     * Latencies of one command in nanoseconds. Kept in full, so percentiles are exact.
+     */
+    public static class Samples {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        private void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the (sorted) samples fall.
+         */
+        public long percentile(double fraction) {
+            if (size == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * size) - 1;
+            return values[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+}
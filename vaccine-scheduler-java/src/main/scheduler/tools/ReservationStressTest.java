@@ -0,0 +1,186 @@
+package scheduler.tools;
+
+import scheduler.db.ReservationException;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded stress test for reserve. For each thread count it books every slot on a set of
+ * dates from concurrent patients, with fewer doses than slots so the last dose is contended too,
+ * then checks that no caregiver slot was booked twice and that exactly the available doses were
+ * used. Reports reservations per second for each thread count.
+ *
+ * Usage: ReservationStressTest [backend] [caregivers] [days] [threadCounts...]
+ * The backend defaults to "memory"; running against "sqlserver" adds uniquely named rows to the
+ * configured database.
+ */
+public class ReservationStressTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    public static void main(String[] args) throws Exception {
+        String backend = args.length > 0 ? args[0] : "memory";
+        int caregivers = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            threadCounts.add(Integer.parseInt(args[i]));
+        }
+        if (threadCounts.isEmpty()) {
+            threadCounts.addAll(List.of(1, 2, 4, 8, 16, 32));
+        }
+
+        boolean failed = false;
+        System.out.println("threads  reservations  no-slot  seconds  reservations/s  result");
+        for (int threads : threadCounts) {
+            Storage storage = StorageManager.createStorage(backend);
+            try {
+                Result result = run(storage, threads, caregivers, days);
+                System.out.printf("%7d  %12d  %7d  %7.2f  %14.0f  %s%n", threads, result.reservations,
+                        result.noSlot, result.seconds, result.reservations / result.seconds,
+                        result.errors.isEmpty() ? "OK" : "FAILED");
+                for (String error : result.errors) {
+                    System.out.println("  " + error);
+                }
+                failed |= !result.errors.isEmpty();
+            } finally {
+                storage.close();
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(Storage storage, int threads, int caregiverCount, int days)
+            throws SQLException, InterruptedException {
+        // unique names so repeated runs against a real database do not collide
+        String prefix = "stress" + System.currentTimeMillis() + "_" + threads + "_";
+        String vaccineName = prefix + "vaccine";
+        int slots = caregiverCount * days;
+        int doses = slots * 3 / 4;
+
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("Stress#Test1", salt);
+        List<String> caregivers = new ArrayList<>();
+        for (int i = 0; i < caregiverCount; i++) {
+            String username = prefix + "cg" + i;
+            storage.saveCaregiver(new Caregiver.CaregiverBuilder(username, salt, hash).build());
+            for (int d = 0; d < days; d++) {
+                storage.addAvailability(username, Date.valueOf(FIRST_DAY.plusDays(d)));
+            }
+            caregivers.add(username);
+        }
+        storage.saveVaccine(new Vaccine.VaccineBuilder(vaccineName, doses).build());
+
+        AtomicInteger reservations = new AtomicInteger();
+        AtomicLong noSlot = new AtomicLong();
+        List<String> errors = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String patient = prefix + "p" + t;
+            storage.savePatient(new Patient.PatientBuilder(patient, salt, hash).build());
+            Thread worker = new Thread(() -> {
+                boolean[] fullDays = new boolean[days];
+                int remaining = days;
+                try {
+                    start.await();
+                    while (remaining > 0) {
+                        int d = ThreadLocalRandom.current().nextInt(days);
+                        if (fullDays[d]) {
+                            continue;
+                        }
+                        try {
+                            storage.reserve(Date.valueOf(FIRST_DAY.plusDays(d)), vaccineName, patient);
+                            reservations.incrementAndGet();
+                        } catch (ReservationException e) {
+                            if (e.getReason() == ReservationException.Reason.NOT_ENOUGH_DOSES) {
+                                return;
+                            }
+                            noSlot.incrementAndGet();
+                            fullDays[d] = true;
+                            remaining--;
+                        }
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    synchronized (errors) {
+                        errors.add("worker " + patient + ": " + e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        verify(storage, caregivers, vaccineName, doses, reservations.get(), errors);
+        return new Result(reservations.get(), noSlot.get(), seconds, errors);
+    }
+
+    private static void verify(Storage storage, List<String> caregivers, String vaccineName, int doses,
+                               int reservations, List<String> errors) throws SQLException {
+        Set<String> bookedSlots = new HashSet<>();
+        int appointments = 0;
+        for (String caregiver : caregivers) {
+            for (Appointment appointment : storage.getCaregiverAppointments(caregiver)) {
+                appointments++;
+                String slot = appointment.getCaregiverUsername() + "@" + appointment.getTime();
+                if (!bookedSlots.add(slot)) {
+                    errors.add("double-booked slot " + slot);
+                }
+                if (storage.findAvailableCaregivers(appointment.getTime()).contains(caregiver)) {
+                    errors.add("booked slot still available " + slot);
+                }
+            }
+        }
+        if (appointments != reservations) {
+            errors.add(appointments + " appointments stored for " + reservations + " successful reservations");
+        }
+        Vaccine vaccine = storage.getVaccine(vaccineName);
+        int remaining = vaccine == null ? -1 : vaccine.getAvailableDoses();
+        if (remaining != doses - appointments) {
+            errors.add(remaining + " doses left, expected " + (doses - appointments));
+        }
+        if (remaining != 0) {
+            errors.add("reservations stopped with " + remaining + " doses left");
+        }
+    }
+
+    private static class Result {
+        private final int reservations;
+        private final long noSlot;
+        private final double seconds;
+        private final List<String> errors;
+
+        private Result(int reservations, long noSlot, double seconds, List<String> errors) {
+            this.reservations = reservations;
+            this.noSlot = noSlot;
+            this.seconds = seconds;
+            this.errors = errors;
+        }
+    }
+}
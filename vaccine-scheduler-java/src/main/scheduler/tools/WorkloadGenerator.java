@@ -0,0 +1,279 @@
+package scheduler.tools;
+
+import scheduler.db.ImportBatch;
+import scheduler.db.ReservationException;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fills the tables of resources/create.sql with a large, skewed synthetic dataset:
+ * <ul>
+ *     <li>caregivers are available on most weekdays and fewer weekend days, and busy caregivers
+ *     publish more days than others,</li>
+ *     <li>a few vaccines hold most of the doses (Zipf-distributed),</li>
+ *     <li>existing appointments cluster on the first days of the year, like real demand does.</li>
+ * </ul>
+ * All users share the password {@link #PASSWORD} so that load tests can log in as any of them.
+ * Names start with a unique prefix, so running it against a real database adds new rows next to
+ * the existing ones.
+ *
+ * Usage: WorkloadGenerator [backend] [patients] [caregivers] [days]
+ */
+public class WorkloadGenerator {
+
+    public static final String PASSWORD = "Load#Test1";
+    public static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    private static final String[] VACCINES = {"Pfizer", "Moderna", "Novavax", "Janssen", "AstraZeneca"};
+    private static final int BATCH_SIZE = 1000;
+    // share of the patients that already have an appointment
+    private static final double BOOKED_PATIENT_SHARE = 0.1;
+
+    private final int patients;
+    private final int caregivers;
+    private final int days;
+    private final Random random;
+    private final String prefix = "load" + System.currentTimeMillis() + "_";
+
+    public WorkloadGenerator(int patients, int caregivers, int days, long seed) {
+        this.patients = patients;
+        this.caregivers = caregivers;
+        this.days = days;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String backend = args.length > 0 ? args[0] : "memory";
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int caregivers = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        int days = args.length > 3 ? Integer.parseInt(args[3]) : 365;
+
+        Storage storage = StorageManager.createStorage(backend);
+        try {
+            Dataset dataset = new WorkloadGenerator(patients, caregivers, days, 42).generate(storage);
+            System.out.println("Generated " + dataset);
+        } finally {
+            storage.close();
+        }
+    }
+
+    public Dataset generate(Storage storage) throws SQLException {
+        long start = System.nanoTime();
+        Dataset dataset = new Dataset(prefix, patients, caregivers, days);
+        addUsers(storage, dataset);
+        int availabilities = addAvailabilities(storage, dataset);
+        addVaccines(storage, dataset);
+        int appointments = addAppointments(storage, dataset);
+        dataset.availabilities = availabilities;
+        dataset.appointments = appointments;
+        dataset.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        return dataset;
+    }
+
+    private void addUsers(Storage storage, Dataset dataset) throws SQLException {
+        ExecutorService hashers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            int total = caregivers + patients;
+            for (int from = 0; from < total; from += BATCH_SIZE) {
+                int to = Math.min(total, from + BATCH_SIZE);
+                List<Future<byte[][]>> hashes = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    hashes.add(hashers.submit(() -> {
+                        byte[] salt = Util.generateSalt();
+                        return new byte[][] {salt, Util.generateHash(PASSWORD, salt)};
+                    }));
+                }
+                ImportBatch batch = new ImportBatch();
+                for (int i = from; i < to; i++) {
+                    byte[][] saltAndHash = hashes.get(i - from).get();
+                    if (i < caregivers) {
+                        batch.addCaregiver(new Caregiver.CaregiverBuilder(dataset.caregiver(i),
+                                saltAndHash[0], saltAndHash[1]).build());
+                    } else {
+                        batch.addPatient(new Patient.PatientBuilder(dataset.patient(i - caregivers),
+                                saltAndHash[0], saltAndHash[1]).build());
+                    }
+                }
+                storage.importBatch(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            hashers.shutdown();
+        }
+    }
+
+    private int addAvailabilities(Storage storage, Dataset dataset) throws SQLException {
+        int added = 0;
+        for (int i = 0; i < caregivers; i++) {
+            // how much of the schedule this caregiver fills, between 30% and 95%
+            double busyness = 0.3 + 0.65 * random.nextDouble();
+            List<Date> dates = new ArrayList<>();
+            for (int d = 0; d < days; d++) {
+                LocalDate day = FIRST_DAY.plusDays(d);
+                boolean weekend = day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY;
+                if (random.nextDouble() < (weekend ? busyness / 3 : busyness)) {
+                    dates.add(Date.valueOf(day));
+                }
+            }
+            added += storage.addAvailabilities(dataset.caregiver(i), dates);
+        }
+        return added;
+    }
+
+    private void addVaccines(Storage storage, Dataset dataset) throws SQLException {
+        // enough doses for every patient, split by popularity
+        ZipfSampler popularity = new ZipfSampler(VACCINES.length, 1.2);
+        ImportBatch batch = new ImportBatch();
+        for (int v = 0; v < VACCINES.length; v++) {
+            int doses = (int) Math.max(1, Math.round(2L * patients * popularity.probability(v)));
+            batch.addDoses(dataset.vaccine(v), doses);
+        }
+        storage.importBatch(batch);
+    }
+
+    private int addAppointments(Storage storage, Dataset dataset) throws SQLException {
+        ZipfSampler dayPopularity = new ZipfSampler(days, 0.8);
+        ZipfSampler vaccinePopularity = new ZipfSampler(VACCINES.length, 1.2);
+        int booked = 0;
+        int bookings = (int) (patients * BOOKED_PATIENT_SHARE);
+        for (int i = 0; i < bookings; i++) {
+            Date date = Date.valueOf(FIRST_DAY.plusDays(dayPopularity.sample(random)));
+            try {
+                storage.reserve(date, dataset.vaccine(vaccinePopularity.sample(random)),
+                        dataset.patient(random.nextInt(patients)));
+                booked++;
+            } catch (ReservationException e) {
+                // the day is full or the vaccine ran out; demand is allowed to exceed supply
+            }
+        }
+        return booked;
+    }
+
+    /**
+     * Names and sizes of a generated dataset.
+     */
+    public static class Dataset {
+        private final String prefix;
+        private final int patients;
+        private final int caregivers;
+        private final int days;
+        private int availabilities = 0;
+        private int appointments = 0;
+        private long elapsedMillis = 0;
+
+        private Dataset(String prefix, int patients, int caregivers, int days) {
+            this.prefix = prefix;
+            this.patients = patients;
+            this.caregivers = caregivers;
+            this.days = days;
+        }
+
+        public String patient(int i) {
+            return prefix + "p" + i;
+        }
+
+        public String caregiver(int i) {
+            return prefix + "cg" + i;
+        }
+
+        public String vaccine(int i) {
+            return prefix + VACCINES[i];
+        }
+
+        public Date day(int d) {
+            return Date.valueOf(FIRST_DAY.plusDays(d));
+        }
+
+        // Getters
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public int getPatients() {
+            return patients;
+        }
+
+        public int getCaregivers() {
+            return caregivers;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public int getVaccines() {
+            return VACCINES.length;
+        }
+
+        @Override
+        public String toString() {
+            return "Dataset{" +
+                    "prefix='" + prefix + '\'' +
+                    ", patients=" + patients +
+                    ", caregivers=" + caregivers +
+                    ", days=" + days +
+                    ", availabilities=" + availabilities +
+                    ", appointments=" + appointments +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * Draws integers in [0, n) where i has probability proportional to 1 / (i + 1)^exponent, so
+     * low values are the popular ones.
+     */
+    public static class ZipfSampler {
+        private final double[] cumulative;
+
+        public ZipfSampler(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        public int sample(Random random) {
+            double u = random.nextDouble();
+            int lo = 0;
+            int hi = cumulative.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        public double probability(int i) {
+            return i == 0 ? cumulative[0] : cumulative[i] - cumulative[i - 1];
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package scheduler.util;
+
+import scheduler.metrics.Metrics;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe PBKDF2 password hashing shared by the whole application.
+ *
+ * The SecretKeyFactory and SecureRandom are created once per thread and reused, so only the KDF
+ * itself is paid per call. Password checks run on a bounded pool of HashWorkers threads (default:
+ * one per core) so that a burst of logins cannot use more CPU than that.
+ *
+ * New hashes use the number of iterations from HashIterations (default 10). Each user's hash is
+ * stored with the iterations it was made with and verified with those, so changing the setting
+ * only applies to users created afterwards.
+ * Hashing latency is exposed over JMX as scheduler:type=PasswordHasher.
+ */
+public class PasswordHasher implements PasswordHasherMXBean {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int DEFAULT_ITERATIONS = 10;
+    // iterations of the hashes stored before the count was stored with them
+    public static final int LEGACY_ITERATIONS = 10;
+    private static final int KEY_LENGTH = 16;
+    private static final int SALT_LENGTH = 16;
+
+    private static PasswordHasher instance = null;
+
+    private final int iterations = Util.envInt("HashIterations", DEFAULT_ITERATIONS);
+    private final int workers = Util.envInt("HashWorkers", Runtime.getRuntime().availableProcessors());
+
+    private final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(PasswordHasher::newFactory);
+    private final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+    private final ExecutorService verifiers;
+
+    // hashing statistics
+    private final AtomicLong hashCount = new AtomicLong();
+    private final AtomicLong totalHashNanos = new AtomicLong();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+
+    private PasswordHasher() {
+        verifiers = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "password-verifier");
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.register(this, "scheduler:type=PasswordHasher");
+    }
+
+    public static synchronized PasswordHasher getInstance() {
+        if (instance == null) {
+            instance = new PasswordHasher();
+        }
+        return instance;
+    }
+
+    public byte[] generateSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        randoms.get().nextBytes(salt);
+        return salt;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public byte[] hash(String password, byte[] salt) {
+        return hash(password, salt, iterations);
+    }
+
+    public byte[] hash(String password, byte[] salt, int iterations) {
+        long start = System.nanoTime();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+            long elapsed = System.nanoTime() - start;
+            hashCount.incrementAndGet();
+            totalHashNanos.addAndGet(elapsed);
+            maxHashNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    /**
+     * Checks the password against a stored hash on the verifier pool, waiting for a free worker
+     * if all of them are busy. Trailing zero bytes are ignored on both sides, since the database
+     * pads stored hashes with them.
+     */
+    public boolean verify(String password, byte[] salt, byte[] storedHash) {
+        return verify(password, salt, storedHash, iterations);
+    }
+
+    /**
+     * Like {@link #verify(String, byte[], byte[])}, for a hash made with the given iterations.
+     */
+    public boolean verify(String password, byte[] salt, byte[] storedHash, int iterations) {
+        try {
+            return verifiers.submit(() -> MessageDigest.isEqual(Util.trim(storedHash),
+                    Util.trim(hash(password, salt, iterations)))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public HashStats getStats() {
+        long hashes = hashCount.get();
+        return new HashStats(iterations, hashes, hashes == 0 ? 0 : totalHashNanos.get() / hashes / 1000,
+                maxHashNanos.get() / 1000);
+    }
+
+    private static SecretKeyFactory newFactory() {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class HashStats {
+        private final int iterations;
+        private final long hashes;
+        private final long averageMicros;
+        private final long maxMicros;
+
+        private HashStats(int iterations, long hashes, long averageMicros, long maxMicros) {
+            this.iterations = iterations;
+            this.hashes = hashes;
+            this.averageMicros = averageMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        // Getters
+        public int getIterations() {
+            return iterations;
+        }
+
+        public long getHashes() {
+            return hashes;
+        }
+
+        public long getAverageMicros() {
+            return averageMicros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "HashStats{" +
+                    "iterations=" + iterations +
+                    ", hashes=" + hashes +
+                    ", averageMicros=" + averageMicros +
+                    ", maxMicros=" + maxMicros +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package scheduler.util;
+
+/**
+ * JMX view of the {@link PasswordHasher} statistics.
+ */
+public interface PasswordHasherMXBean {
+    PasswordHasher.HashStats getStats();
+}
@@ -0,0 +1,73 @@
+package scheduler.util;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Expands a date range and a recurrence pattern into the matching dates. Patterns are "daily",
+ * "weekdays", "weekends" or a comma-separated list of days such as "mon,wed,fri".
+ */
+public class Recurrence {
+
+    // longest range accepted in one go, to catch typos in the year
+    public static final int MAX_RANGE_DAYS = 366;
+
+    private final Set<DayOfWeek> days;
+
+    private Recurrence(Set<DayOfWeek> days) {
+        this.days = days;
+    }
+
+    public static Recurrence parse(String pattern) {
+        String p = pattern.trim().toLowerCase(Locale.ROOT);
+        if (p.equals("daily")) {
+            return new Recurrence(EnumSet.allOf(DayOfWeek.class));
+        } else if (p.equals("weekdays")) {
+            return new Recurrence(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY));
+        } else if (p.equals("weekends")) {
+            return new Recurrence(EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+        }
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String token : p.split(",")) {
+            days.add(parseDay(token.trim()));
+        }
+        return new Recurrence(days);
+    }
+
+    /**
+     * Returns the dates from {@code from} to {@code to} (both inclusive) that match this pattern.
+     */
+    public List<Date> expand(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("End date is before start date!");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_RANGE_DAYS) {
+            throw new IllegalArgumentException("Date range is longer than " + MAX_RANGE_DAYS + " days!");
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            if (days.contains(d.getDayOfWeek())) {
+                dates.add(Date.valueOf(d));
+            }
+        }
+        return dates;
+    }
+
+    private static DayOfWeek parseDay(String token) {
+        for (DayOfWeek day : DayOfWeek.values()) {
+            String shortName = day.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).toLowerCase(Locale.ROOT);
+            if (token.equals(shortName) || token.equals(day.name().toLowerCase(Locale.ROOT))) {
+                return day;
+            }
+        }
+        throw new IllegalArgumentException("Unknown day: " + token);
+    }
+}
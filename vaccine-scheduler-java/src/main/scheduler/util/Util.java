@@ -1,41 +1,33 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    /**
+     * Reads an integer setting from the environment, or returns the default if it is not set or
+     * not a number.
+     */
+    public static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        return salt;
+        return PasswordHasher.getInstance().generateSalt();
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
-
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
-        try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
-        }
-        return hash;
+        return PasswordHasher.getInstance().hash(password, salt);
     }
 
     public static byte[] trim(byte[] bytes)